@@ -1,29 +1,104 @@
 package gp;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Supplier;
 
 import gp.ai.Node;
+import gp.ai.NodeSet;
 
 public class DamageAndPath {
-    private int damage;
-    private List<Node> path;
+    // Immutable part of a path: the nodes leading to the given entry of the search layers, followed by
+    // the next segment. Segments are shared by all paths continuing from the same search.
+    private static final class Segment {
+        private final NodeUtil.Layers layers;
+        private final int entry;
+        private final Segment next;
 
-    DamageAndPath(int damage, List<Node> head) {
+        private Segment(NodeUtil.Layers layers, int entry, Segment next) {
+            this.layers = layers;
+            this.entry = entry;
+            this.next = next;
+        }
+    }
+
+    private final int damage;
+    // Path is built only when requested, as most targets of a search are never moved to.
+    private final Segment segments;
+    // Result of a search with the same path, for targets read from a reachability table
+    private final Supplier<DamageAndPath> source;
+    // Results are shared between threads through the move cache, so the built path is published safely.
+    // Concurrent callers may build it more than once, with equal results.
+    private volatile List<Node> path;
+
+    DamageAndPath(int damage, NodeUtil.Layers layers, int entry) {
+        this(damage, new Segment(layers, entry, null), null);
+    }
+
+    DamageAndPath(int damage, Supplier<DamageAndPath> source) {
+        this(damage, null, source);
+    }
+
+    private DamageAndPath(int damage, Segment segments, Supplier<DamageAndPath> source) {
         this.damage = damage;
-        path = head;
+        this.segments = segments;
+        this.source = source;
+    }
+
+    // Results of a search are shared between distances, so prefixing creates a new instance.
+    DamageAndPath addPrefix(int damage, NodeUtil.Layers layers, int entry) {
+        return new DamageAndPath(this.damage + damage, new Segment(layers, entry, segments), null);
     }
 
-    DamageAndPath addPrefix(int damage, List<Node> prefix) {
-        this.damage += damage;
-        path.addAll(0, prefix);
-        return this;
+    // Same path with different damage, the path is still built lazily.
+    DamageAndPath withDamage(int damage) {
+        final DamageAndPath result = new DamageAndPath(damage, segments, source);
+        result.path = path;
+        return result;
     }
 
     public int getDamage() {
         return damage;
     }
 
+    /**
+     * Returns the nodes of the path as a read-only list.
+     */
     public List<Node> getPath() {
-        return path;
+        List<Node> result = path;
+        if (result == null && source != null) {
+            result = source.get().getPath();
+        }
+        if (result == null) {
+            int length = 0;
+            for (Segment segment = segments; segment != null; segment = segment.next) {
+                length += segment.layers.getPathLength(segment.entry);
+            }
+            final Node[] nodes = new Node[length];
+            int end = 0;
+            for (Segment segment = segments; segment != null; segment = segment.next) {
+                end += segment.layers.getPathLength(segment.entry);
+                segment.layers.copyPath(segment.entry, nodes, end);
+            }
+            result = Collections.unmodifiableList(Arrays.asList(nodes));
+        }
+        path = result;
+        return result;
+    }
+
+    /**
+     * Returns true if any node of the path belongs to the given set, without building the path.
+     */
+    public boolean passesThrough(NodeSet nodes) {
+        if (source != null) {
+            return source.get().passesThrough(nodes);
+        }
+        for (Segment segment = segments; segment != null; segment = segment.next) {
+            if (segment.layers.pathContainsAny(segment.entry, nodes)) {
+                return true;
+            }
+        }
+        return false;
     }
 }
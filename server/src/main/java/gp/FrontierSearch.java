@@ -0,0 +1,199 @@
+package gp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import gp.ai.Node;
+import gp.ai.NodeSet;
+import gp.ai.TrackGraph;
+
+/**
+ * Same search as NodeUtil.findNodes, but the nodes at each distance are handled as a bitset instead of
+ * a list, so each step is an OR of the child masks of the frontier masked by node types and blocked
+ * nodes. Finds the targets and their minimum damage for every distance, but not the paths. Targets
+ * with at least the given hitpoints of damage are left out already while searching, use
+ * Integer.MAX_VALUE to keep all targets. Not thread-safe.
+ */
+final class FrontierSearch {
+    private final TrackGraph graph;
+    private final int words;
+    private final boolean finalLap;
+    private final int hitpoints;
+    // Nodes that can be moved to, i.e. not blocked and not in the pits unless pit entry is allowed
+    private final long[] allowed;
+    // For each distance and damage, a bitset of targets. Null arrays are empty.
+    private final Map<Integer, long[][][]> searches = new HashMap<>();
+
+    FrontierSearch(TrackGraph graph, NodeSet forbiddenNodes, boolean finalLap, boolean allowPitEntry, int hitpoints) {
+        this.graph = graph;
+        words = graph.getWordCount();
+        this.finalLap = finalLap;
+        this.hitpoints = hitpoints;
+        allowed = new long[words];
+        final long[] forbidden = forbiddenNodes.toLongArray();
+        for (int word = 0; word < words; word++) {
+            allowed[word] = ~(word < forbidden.length ? forbidden[word] : 0L) & (allowPitEntry ? ~0L : ~graph.getPitMask(word));
+        }
+    }
+
+    /**
+     * Returns the targets for each distance from minDistance to maxDistance with their minimum damage,
+     * in the same format as NodeUtil.findTargetNodes but without paths.
+     */
+    List<Map<Node, Integer>> findTargets(int startNode, int minDistance, int maxDistance, int stopsDone) {
+        final long[][][] targets = search(startNode, maxDistance, true, stopsDone);
+        final List<Map<Node, Integer>> results = new ArrayList<>(maxDistance + 1);
+        final long[] found = new long[words];
+        for (int distance = 0; distance <= maxDistance; distance++) {
+            final Map<Node, Integer> damages = new HashMap<>();
+            if (distance >= minDistance && targets[distance] != null) {
+                // Resolve damage only for the targets found, the smallest damage comes first
+                Arrays.fill(found, 0L);
+                for (int damage = 0; damage < targets[distance].length; damage++) {
+                    final long[] row = targets[distance][damage];
+                    if (row == null) {
+                        continue;
+                    }
+                    for (int word = 0; word < words; word++) {
+                        long bits = row[word] & ~found[word];
+                        found[word] |= bits;
+                        while (bits != 0) {
+                            damages.put(graph.getNode(word * 64 + Long.numberOfTrailingZeros(bits)), damage);
+                            bits &= bits - 1;
+                        }
+                    }
+                }
+            }
+            results.add(damages);
+        }
+        return results;
+    }
+
+    private long[][][] search(int startNode, int maxDistance, boolean allowCurveEntry, int stopsDone) {
+        // Curves have at most 3 stops, so larger stop counts behave the same
+        final int key = (startNode * 4 + Math.min(stopsDone, 3)) * 2 + (allowCurveEntry ? 1 : 0);
+        long[][][] targets = searches.get(key);
+        if (targets == null || targets.length <= maxDistance) {
+            targets = findTargets(startNode, maxDistance, allowCurveEntry, stopsDone);
+            searches.put(key, targets);
+        }
+        return targets;
+    }
+
+    private long[][][] findTargets(int startNode, int maxDistance, boolean allowCurveEntry, int stopsDone) {
+        final long[][][] targets = new long[maxDistance + 1][][];
+        final long[] frontier = new long[words];
+        // Visited non-curve nodes, for finding the shortest path in straights
+        final long[] visited = new long[words];
+        // Finish line nodes where movement stopped on the final lap
+        final long[] stopped = new long[words];
+        final long[] straightChildren = new long[words];
+        final long[] curveChildren = new long[words];
+        final long[] freeExits = new long[words];
+        final long[] damagingExits = new long[words];
+        frontier[startNode >>> 6] = 1L << startNode;
+        if (!graph.isCurve(startNode)) {
+            visited[startNode >>> 6] = 1L << startNode;
+        }
+        final boolean stopAtFinish = finalLap && !graph.hasFinish(startNode);
+        for (int distance = 0; distance <= maxDistance; distance++) {
+            final long[] row = getRow(targets, distance, 0);
+            for (int word = 0; word < words; word++) {
+                row[word] |= frontier[word] | stopped[word];
+            }
+            if (distance == maxDistance) {
+                break;
+            }
+            Arrays.fill(straightChildren, 0L);
+            Arrays.fill(curveChildren, 0L);
+            Arrays.fill(freeExits, 0L);
+            Arrays.fill(damagingExits, 0L);
+            boolean hasExits = false;
+            for (int word = 0; word < words; word++) {
+                long bits = frontier[word];
+                if (stopAtFinish) {
+                    // Movement stops at the finish line regardless of the remaining distance
+                    stopped[word] |= bits & graph.getFinishMask(word);
+                    bits &= ~graph.getFinishMask(word);
+                }
+                while (bits != 0) {
+                    final int node = word * 64 + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                    if (!graph.isCurve(node)) {
+                        graph.addChildren(node, straightChildren);
+                        continue;
+                    }
+                    graph.addChildren(node, curveChildren);
+                    final int stopsToDo = graph.getStopCount(node) - stopsDone;
+                    if (stopsToDo <= 1) {
+                        // exiting curve
+                        graph.addChildren(node, stopsToDo <= 0 ? freeExits : damagingExits);
+                        hasExits = true;
+                    }
+                }
+            }
+            for (int word = 0; word < words; word++) {
+                final long curve = graph.getCurveMask(word);
+                final long nextStraight = straightChildren[word] & ~curve & allowed[word] & ~visited[word];
+                visited[word] |= nextStraight;
+                final long nextCurve = (curveChildren[word] | (allowCurveEntry ? straightChildren[word] : 0L)) & curve & allowed[word];
+                frontier[word] = nextStraight | nextCurve;
+                freeExits[word] &= ~curve & allowed[word];
+                damagingExits[word] &= ~curve & allowed[word];
+            }
+            if (hasExits) {
+                addExits(targets, freeExits, distance, maxDistance, true);
+                addExits(targets, damagingExits, distance, maxDistance, false);
+            }
+        }
+        return targets;
+    }
+
+    // Adds targets of the searches from the given curve exits at the given distance
+    private void addExits(long[][][] targets, long[] exits, int distance, int maxDistance, boolean allowEntry) {
+        for (int word = 0; word < words; word++) {
+            long bits = exits[word];
+            while (bits != 0) {
+                final int exit = word * 64 + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                final long[][][] exitTargets = search(exit, maxDistance - distance - 1, allowEntry, 0);
+                for (int target = distance + 1; target <= maxDistance; target++) {
+                    final long[][] exitRows = exitTargets[target - distance - 1];
+                    if (exitRows == null) {
+                        continue;
+                    }
+                    if (allowEntry) {
+                        for (int damage = 0; damage < exitRows.length; damage++) {
+                            if (exitRows[damage] != null) {
+                                or(getRow(targets, target, damage), exitRows[damage]);
+                            }
+                        }
+                    } else if (target - distance < hitpoints && exitRows[0] != null) {
+                        // Search without curve entry has no damage of its own
+                        or(getRow(targets, target, target - distance), exitRows[0]);
+                    }
+                }
+            }
+        }
+    }
+
+    private long[] getRow(long[][][] targets, int distance, int damage) {
+        if (targets[distance] == null) {
+            // Damage cannot be larger than the distance
+            targets[distance] = new long[Math.min(hitpoints, targets.length)][];
+        }
+        if (targets[distance][damage] == null) {
+            targets[distance][damage] = new long[words];
+        }
+        return targets[distance][damage];
+    }
+
+    private static void or(long[] target, long[] source) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] |= source[i];
+        }
+    }
+}
@@ -1,13 +1,14 @@
 package gp;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
 
 import javax.swing.JPanel;
 
 import gp.ai.Gear;
 import gp.ai.Node;
+import gp.ai.NodeSet;
 
 import gp.ai.NodeType;
 import gp.model.*;
@@ -15,6 +16,9 @@ import gp.model.*;
 public final class LocalPlayer extends Player {
     private UUID id;
     private final List<DamageAndPath> paths = new ArrayList<>();
+    // Targets of every roll of the selected gear, searched while the roll is announced, see prepareTargets
+    private CompletableFuture<List<Map<Node, DamageAndPath>>> preparedTargets;
+    private int preparedGear;
     private final JPanel panel; // for repaint requests needed for animations
     static int animationDelayInMillis;
     private long timeUsed;
@@ -266,18 +270,80 @@ public final class LocalPlayer extends Player {
         }
     }
 
+    /**
+     * Starts the target search for all rolls of the selected gear in the background, so that it runs
+     * while the roll is notified to the players. The state of the player is read here in the game
+     * thread, as it does not change before findAllTargets.
+     */
+    void prepareTargets(List<LocalPlayer> players, Weather weather, int totalLaps) {
+        preparedTargets = null;
+        if (gear == 0) {
+            return;
+        }
+        final Node node = this.node;
+        final int gear = this.gear;
+        final int hitpoints = this.hitpoints;
+        final int curveStops = this.curveStops;
+        final int lapsToGo = this.lapsToGo;
+        final int minRoll = Math.max(0, Gear.getMin(gear) - hitpoints + 1);
+        final int maxDistance = getMaxDistance(Gear.getMax(gear), weather);
+        final NodeSet forbiddenNodes = getForbiddenNodes(players);
+        preparedGear = gear;
+        preparedTargets = CompletableFuture.supplyAsync(() ->
+                NodeUtil.findTargetNodes(node, gear, minRoll, maxDistance, hitpoints, curveStops, lapsToGo, forbiddenNodes, lapsToGo == totalLaps));
+    }
+
     Moves findAllTargets(int roll, String gameId, List<LocalPlayer> players, Weather weather, int totalLaps) {
-        int braking = 0;
-        final Set<Node> forbiddenNodes = players
-            .stream()
-            .map(player -> player.node)
-            .collect(Collectors.toSet());
+        final List<Map<Node, DamageAndPath>> targets;
+        if (preparedTargets != null && preparedGear == gear) {
+            targets = preparedTargets.join();
+        } else {
+            // Distances below the roll minus the hitpoints cannot be reached by braking
+            targets = findTargets(Math.max(0, roll - hitpoints + 1), roll, getForbiddenNodes(players), weather, totalLaps);
+        }
+        preparedTargets = null;
+        final MoveList moveList = findMoves(roll, targets, weather);
         paths.clear();
+        paths.addAll(moveList.paths);
+        return new Moves().game(new GameId().gameId(gameId)).moves(moveList.moves);
+    }
+
+    private NodeSet getForbiddenNodes(List<LocalPlayer> players) {
+        final NodeSet forbiddenNodes = new NodeSet();
+        players.forEach(player -> forbiddenNodes.add(player.node));
+        return forbiddenNodes;
+    }
+
+    // Longest distance of the given roll, including the extra distance from soft tires or sliding
+    private int getMaxDistance(int roll, Weather weather) {
         final boolean rain = weather == Weather.RAIN;
+        final boolean softTires = tires != null && tires.canUse(weather) && !rain;
+        final int slide = tires != null && tires.getType() == Tires.Type.WET ? 1 : 3;
+        return roll + (rain ? slide : (softTires ? 1 : 0));
+    }
+
+    // Targets of the given rolls, including the extra distance from soft tires or sliding
+    private List<Map<Node, DamageAndPath>> findTargets(int minRoll, int maxRoll, NodeSet forbiddenNodes, Weather weather, int totalLaps) {
+        return NodeUtil.findTargetNodes(node, gear, minRoll, getMaxDistance(maxRoll, weather), hitpoints, curveStops, lapsToGo, forbiddenNodes, lapsToGo == totalLaps);
+    }
+
+    // Valid moves of one roll and the paths to their targets, in the same order
+    private static final class MoveList {
+        private final List<ValidMove> moves = new ArrayList<>();
+        private final List<DamageAndPath> paths = new ArrayList<>();
+    }
+
+    private MoveList findMoves(int roll, List<Map<Node, DamageAndPath>> allTargets, Weather weather) {
+        int braking = 0;
+        final boolean rain = weather == Weather.RAIN;
+        final boolean softTires = tires != null && tires.canUse(weather) && !rain;
+        final int slide = tires != null && tires.getType() == Tires.Type.WET ? 1 : 3;
         final int overshootMultiplier = tires == null ? 1 : tires.getOvershootDamage(weather);
-        final List<ValidMove> validMoves = new ArrayList<>();
-        if (tires != null && tires.canUse(weather) && !rain) {
-            final Map<Node, DamageAndPath> targets = findTargetNodes(roll + 1, forbiddenNodes, totalLaps);
+        final MoveList moveList = new MoveList();
+        final List<ValidMove> validMoves = moveList.moves;
+        final List<DamageAndPath> paths = moveList.paths;
+        if (softTires) {
+            final Map<Node, DamageAndPath> targets = allTargets.get(roll + 1);
             for (Map.Entry<Node, DamageAndPath> e : targets.entrySet()) {
                 final int damage = e.getValue().getDamage() * overshootMultiplier;
                 if (damage < hitpoints) {
@@ -286,13 +352,13 @@ public final class LocalPlayer extends Player {
                             .overshoot(e.getValue().getDamage() * overshootMultiplier)
                             .braking(0)
                     );
-                    paths.add(new DamageAndPath(damage, e.getValue().getPath()));
+                    paths.add(e.getValue().withDamage(damage));
                 }
             }
         }
-        final Set<Node> slideNodes = new HashSet<>();
+        final NodeSet slideNodes = new NodeSet();
         while (braking < hitpoints) {
-            final Map<Node, DamageAndPath> targets = findTargetNodes(roll - braking, forbiddenNodes, totalLaps);
+            final Map<Node, DamageAndPath> targets = allTargets.get(roll - braking);
             for (Map.Entry<Node, DamageAndPath> e : targets.entrySet()) {
                 if (rain && (e.getKey().isCurve() || e.getValue().getDamage() > 0)) {
                     slideNodes.add(e.getKey());
@@ -305,7 +371,7 @@ public final class LocalPlayer extends Player {
                         .overshoot(e.getValue().getDamage() * overshootMultiplier)
                         .braking(braking)
                     );
-                    paths.add(new DamageAndPath(damage, e.getValue().getPath()));
+                    paths.add(e.getValue().withDamage(damage));
                 }
             }
             if (braking == roll) {
@@ -314,12 +380,11 @@ public final class LocalPlayer extends Player {
             braking++;
         }
         if (!slideNodes.isEmpty()) {
-            final int slide = tires != null && tires.getType() == Tires.Type.WET ? 1 : 3;
             braking = 0;
             while (braking < hitpoints) {
-                final Map<Node, DamageAndPath> targets = findTargetNodes(roll + slide - braking, forbiddenNodes, totalLaps);
+                final Map<Node, DamageAndPath> targets = allTargets.get(roll + slide - braking);
                 for (Map.Entry<Node, DamageAndPath> e : targets.entrySet()) {
-                    if (e.getValue().getPath().stream().noneMatch(slideNodes::contains)) {
+                    if (!e.getValue().passesThrough(slideNodes)) {
                         continue;
                     }
                     final int damage = e.getValue().getDamage() * overshootMultiplier + braking;
@@ -329,7 +394,7 @@ public final class LocalPlayer extends Player {
                                 .overshoot(e.getValue().getDamage() * overshootMultiplier)
                                 .braking(braking)
                         );
-                        paths.add(new DamageAndPath(damage, e.getValue().getPath()));
+                        paths.add(e.getValue().withDamage(damage));
                     }
                 }
                 if (braking == roll + slide) {
@@ -338,11 +403,7 @@ public final class LocalPlayer extends Player {
                 braking++;
             }
         }
-        return new Moves().game(new GameId().gameId(gameId)).moves(validMoves);
-    }
-
-    private Map<Node, DamageAndPath> findTargetNodes(int roll, Set<Node> forbiddenNodes, int totalLaps) {
-        return NodeUtil.findTargetNodes(node, gear, roll, hitpoints, curveStops, lapsToGo, forbiddenNodes, lapsToGo == totalLaps);
+        return moveList;
     }
 
     static void possiblyAddEngineDamage(List<LocalPlayer> players, Random rng) {
@@ -1,6 +1,8 @@
 package gp;
 
 import gp.ai.AI;
+import gp.ai.EndgameTable;
+import gp.ai.GearPolicy;
 import gp.ai.ManualAI;
 import gp.ai.Node;
 import gp.ai.TrackData;
@@ -20,7 +22,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.function.Supplier;
+import java.util.function.LongFunction;
 import java.util.logging.FileHandler;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -85,6 +87,9 @@ public class Main extends Game implements Runnable {
     public Main(Params params, Lobby lobby, JFrame frame, JPanel panel, List<PlayerSlot> slots, TrackData trackData, Season resultStorage) {
         super(frame, panel);
         initTrack(trackData);
+        ReachabilityTable.prepare(trackData);
+        GearPolicy.prepare(trackData);
+        EndgameTable.prepare(trackData);
         weatherForecast = params.tireChanges ? Weather.forecast(trackData.weatherParams, params.laps * 20) : null;
         settings.trackId = trackData.getTrackId();
         settings.external = trackData.isExternal();
@@ -180,11 +185,13 @@ public class Main extends Game implements Runnable {
         aiMap.values().forEach(a -> a.notify(notification));
     }
 
-    private <T> T getAiInput(Supplier<T> supplier, int timeout) {
+    // Request gets the deadline of the answer, leeway is left for the overhead of the request
+    private <T> T getAiInput(LongFunction<T> request, int timeout) {
         T result = null;
         boolean exception = false;
         final long startTime = System.currentTimeMillis();
-        final CompletableFuture<T> future = CompletableFuture.supplyAsync(supplier);
+        final long deadline = enableTimeout ? startTime + timeout : Long.MAX_VALUE;
+        final CompletableFuture<T> future = CompletableFuture.supplyAsync(() -> request.apply(deadline));
         try {
             if (enableTimeout) {
                 result = future.get(timeout + current.getLeeway(), TimeUnit.MILLISECONDS);
@@ -225,7 +232,7 @@ public class Main extends Game implements Runnable {
             final AI ai = aiMap.get(current);
             final GameState gameState = ApiHelper.buildGameState(data.getTrackId(), allPlayers);
             log.info("Querying gear input from AI " + current.getNameAndId());
-            final Gear gearResponse = getAiInput(() -> ai.selectGear(gameState), gearTimeoutInMillis);
+            final Gear gearResponse = getAiInput(deadline -> ai.selectGear(gameState, deadline), gearTimeoutInMillis);
             if (ai instanceof ManualAI || allPlayers.stream().filter(pl -> !pl.isStopped()).map(aiMap::get).noneMatch(p -> p instanceof ManualAI)) {
                 updateHitpointMap(gameState);
             }
@@ -238,6 +245,7 @@ public class Main extends Game implements Runnable {
                 current.useCurrentGear();
                 log.warning("Invalid gear selection " + selectedGear + ", using current gear instead");
             }
+            current.prepareTargets(players, getWeather(), totalLaps);
             if (previous != null) {
                 previous.clearRoute();
             }
@@ -252,7 +260,7 @@ public class Main extends Game implements Runnable {
                 current.stop();
             } else {
                 log.info("Querying move input from AI " + current.getNameAndId());
-                final SelectedIndex moveResponse = getAiInput(() -> ai.selectMove(allMoves), moveTimeoutInMillis);
+                final SelectedIndex moveResponse = getAiInput(deadline -> ai.selectMove(allMoves, deadline), moveTimeoutInMillis);
                 Integer selectedIndex = moveResponse == null ? null : moveResponse.getIndex();
                 if (selectedIndex == null || selectedIndex < 0 || selectedIndex >= allMoves.getMoves().size()) {
                     log.warning("Invalid move selection " + selectedIndex + ", using index 0 instead");
@@ -567,6 +567,11 @@ public class MapEditor extends JPanel {
             } catch (FileNotFoundException | UnsupportedEncodingException e) {
                 e.printStackTrace();
             }
+            // Precompute reachability table next to the track data, skipped if the track is not valid yet
+            final TrackData data = TrackData.createTrackData(selectedFile.getPath(), true);
+            if (data != null) {
+                ReachabilityTable.prepare(data);
+            }
             JOptionPane.showConfirmDialog(this, "Track data saved successfully", "Success", JOptionPane.DEFAULT_OPTION);
         }
     }
@@ -0,0 +1,90 @@
+package gp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gp.ai.NodeSet;
+import gp.ai.TrackGraph;
+
+/**
+ * Bounded cache of movement searches shared by all players, least recently used searches are evicted
+ * first. The same position is typically searched by the AI when selecting the gear, again when the
+ * valid moves are listed after the roll, and by the driving aids. Thread-safe.
+ */
+public final class MoveCache {
+    static final class Key {
+        private final TrackGraph graph;
+        private final int start;
+        private final int stopsDone;
+        private final boolean finalLap;
+        private final boolean allowPitEntry;
+        // Blocked nodes that may affect the search
+        private final NodeSet blockedNodes;
+
+        Key(TrackGraph graph, int start, int stopsDone, boolean finalLap, boolean allowPitEntry, NodeSet blockedNodes) {
+            this.graph = graph;
+            this.start = start;
+            this.stopsDone = Math.min(stopsDone, 3);
+            this.finalLap = finalLap;
+            this.allowPitEntry = allowPitEntry;
+            this.blockedNodes = blockedNodes;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (other instanceof Key) {
+                final Key key = (Key) other;
+                return graph == key.graph && start == key.start && stopsDone == key.stopsDone && finalLap == key.finalLap
+                    && allowPitEntry == key.allowPitEntry && blockedNodes.equals(key.blockedNodes);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return (((System.identityHashCode(graph) * 31 + start) * 31 + stopsDone) * 4 + (finalLap ? 2 : 0) + (allowPitEntry ? 1 : 0)) * 31 + blockedNodes.hashCode();
+        }
+    }
+
+    private final Map<Key, NodeUtil.Search> searches;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    MoveCache(int capacity) {
+        searches = new LinkedHashMap<Key, NodeUtil.Search>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, NodeUtil.Search> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    // Returns the cached search if it covers the given distances
+    synchronized NodeUtil.Search get(Key key, int minDistance, int maxDistance) {
+        final NodeUtil.Search search = searches.get(key);
+        if (search != null && search.covers(minDistance, maxDistance)) {
+            hits.incrementAndGet();
+            return search;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    synchronized void put(Key key, NodeUtil.Search search) {
+        searches.put(key, search);
+    }
+
+    public synchronized void clear() {
+        searches.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -1,125 +1,324 @@
 package gp;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import gp.ai.Node;
-import gp.ai.NodeType;
+import gp.ai.NodeSet;
+import gp.ai.TrackGraph;
 
 public abstract class NodeUtil {
-    // Finds path from initial node to the given node at given distance
-    private static List<Node> findPath(Node node,
-                                       int distance,
-                                       Map<Integer, Set<Node>> distanceMap) {
-        final List<Node> path = new ArrayList<>();
-        path.add(node);
-        for (int i = distance - 1; i >= 0; i--) {
-            for (Node previous : distanceMap.get(i)) {
-                if (previous.hasChild(path.get(0))) {
-                    path.add(0, previous);
-                    break;
+    private static final MoveCache moveCache = new MoveCache(256);
+
+    // Nodes visited by a search, grouped by distance. Each entry links to the entry it was reached from,
+    // so paths are only built for the targets that need them.
+    static final class Layers {
+        private final TrackGraph graph;
+        private int[] nodes = new int[64];
+        private int[] parents = new int[64];
+        private int size;
+        // For each node, distance + 1 of the last layer it was added to
+        private final int[] lastLayer;
+
+        private Layers(TrackGraph graph) {
+            this.graph = graph;
+            lastLayer = new int[graph.size()];
+        }
+
+        private void add(int node, int parent, int distance) {
+            if (lastLayer[node] == distance + 1) {
+                return;
+            }
+            lastLayer[node] = distance + 1;
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                parents = Arrays.copyOf(parents, size * 2);
+            }
+            nodes[size] = node;
+            parents[size++] = parent;
+        }
+
+        int getPathLength(int entry) {
+            int length = 0;
+            for (int i = entry; i >= 0; i = parents[i]) {
+                length++;
+            }
+            return length;
+        }
+
+        // Writes the path from initial node to the node of the given entry so that it ends before the given position
+        void copyPath(int entry, Node[] path, int end) {
+            for (int i = end - 1; entry >= 0; i--) {
+                path[i] = graph.getNode(nodes[entry]);
+                entry = parents[entry];
+            }
+        }
+
+        boolean pathContainsAny(int entry, NodeSet nodeSet) {
+            for (int i = entry; i >= 0; i = parents[i]) {
+                if (nodeSet.contains(nodes[i])) {
+                    return true;
                 }
             }
+            return false;
         }
-        if (path.size() != distance + 1) {
-            throw new RuntimeException("Unable to find path");
+    }
+
+    /**
+     * Blocked nodes and lap for a series of movement searches, e.g. all rolls considered in one decision.
+     * Searches are memoized in the context, including the ones started from curve exits, so the blocked
+     * nodes must not change while the context is in use. Not thread-safe.
+     */
+    public static final class SearchContext {
+        private final NodeSet forbiddenNodes;
+        private final boolean finalLap;
+        // Whether searches collect the nodes they examine, needed only for building reachability tables
+        private final boolean recordFootprints;
+        private final Map<Integer, Search> searches = new HashMap<>();
+        // Frontier searches without and with pit entry
+        private final FrontierSearch[] frontierSearches = new FrontierSearch[2];
+
+        public SearchContext(NodeSet forbiddenNodes, int lapsToGo) {
+            this(forbiddenNodes, lapsToGo, false);
+        }
+
+        SearchContext(NodeSet forbiddenNodes, int lapsToGo, boolean recordFootprints) {
+            this.forbiddenNodes = forbiddenNodes;
+            finalLap = lapsToGo == 0;
+            this.recordFootprints = recordFootprints;
+        }
+
+        // Returns the results of a search covering at least the distances from minDistance to maxDistance
+        Search search(TrackGraph graph, int startNode, int minDistance, int maxDistance, boolean allowCurveEntry, int stopsDone, boolean allowPitEntry) {
+            // Curves have at most 3 stops, so larger stop counts behave the same
+            final int key = ((startNode * 4 + Math.min(stopsDone, 3)) * 2 + (allowCurveEntry ? 1 : 0)) * 2 + (allowPitEntry ? 1 : 0);
+            Search search = searches.get(key);
+            if (search == null || !search.covers(minDistance, maxDistance)) {
+                if (search != null) {
+                    // Repeated searches from the same node cover all shorter distances, so a sweep
+                    // over rolls does not need to search again for each roll
+                    minDistance = 0;
+                    maxDistance = Math.max(maxDistance, search.results.size() - 1);
+                }
+                search = findNodes(this, graph, startNode, minDistance, maxDistance, allowCurveEntry, stopsDone, allowPitEntry);
+                searches.put(key, search);
+            }
+            return search;
+        }
+
+        // Frontier search of the context, created on first use as it needs the whole track
+        private FrontierSearch getFrontierSearch(TrackGraph graph, boolean allowPitEntry) {
+            final int index = allowPitEntry ? 1 : 0;
+            if (frontierSearches[index] == null) {
+                frontierSearches[index] = new FrontierSearch(graph, forbiddenNodes, finalLap, allowPitEntry, Integer.MAX_VALUE);
+            }
+            return frontierSearches[index];
         }
-        return path;
     }
 
-    private static void addWork(Node node,
-                                int currentDistance,
-                                Map<Integer, Set<Node>> distanceMap) {
-        distanceMap.computeIfAbsent(currentDistance + 1, _node -> new HashSet<>()).add(node);
+    static final class Search {
+        private final int minDistance;
+        final List<Map<Node, DamageAndPath>> results;
+        // Nodes examined by the search and its sub-searches, except the start node. Blocking any other
+        // node cannot change the results. Null unless recorded by the context.
+        final NodeSet footprint;
+
+        private Search(int minDistance, List<Map<Node, DamageAndPath>> results, NodeSet footprint) {
+            this.minDistance = minDistance;
+            this.results = results;
+            this.footprint = footprint;
+        }
+
+        boolean covers(int minDistance, int maxDistance) {
+            return this.minDistance <= minDistance && results.size() > maxDistance;
+        }
     }
 
-    private static Map<Node, DamageAndPath> findNodes(Node startNode,
-                                                      int targetDistance,
-                                                      Set<Node> forbiddenNodes,
-                                                      boolean allowCurveEntry,
-                                                      int stopsDone,
-                                                      boolean finalLap,
-                                                      boolean allowPitEntry) {
-        // Set of visited non-curve nodes, for finding the shortest path in straights
-        final Set<Node> visited = new HashSet<>();
-        // For each node which is at target distance, calculate the damage and path
-        final Map<Node, DamageAndPath> result = new HashMap<>();
-        // Collects all nodes at certain distances, used for finding paths
-        final Map<Integer, Set<Node>> distanceMap = new HashMap<>();
-        addWork(startNode, -1, distanceMap);
-        if (!startNode.isCurve()) {
-            visited.add(startNode);
-        }
-        for (int distance = 0; distance <= targetDistance && distanceMap.containsKey(distance); distance++) {
-            for (Node node : distanceMap.get(distance)) {
-                if (distance == targetDistance) {
-                    result.put(node, new DamageAndPath(0, findPath(node, distance, distanceMap)));
+    // Finds the target nodes for every distance from minDistance to maxDistance in a single layered traversal.
+    // Index of the returned list is the distance. Layers of the traversal do not depend on the target
+    // distance, so each layer is expanded only once and contributes to all longer distances.
+    private static Search findNodes(SearchContext context,
+                                    TrackGraph graph,
+                                    int startNode,
+                                    int minDistance,
+                                    int maxDistance,
+                                    boolean allowCurveEntry,
+                                    int stopsDone,
+                                    boolean allowPitEntry) {
+        // Visited non-curve nodes, for finding the shortest path in straights
+        final boolean[] visited = new boolean[graph.size()];
+        // For each distance, nodes at that distance with the damage and path
+        final List<Map<Node, DamageAndPath>> results = new ArrayList<>(maxDistance + 1);
+        for (int distance = 0; distance <= maxDistance; distance++) {
+            results.add(new HashMap<>());
+        }
+        final NodeSet footprint = context.recordFootprints ? new NodeSet() : null;
+        final Layers layers = new Layers(graph);
+        layers.add(startNode, -1, 0);
+        if (!graph.isCurve(startNode)) {
+            visited[startNode] = true;
+        }
+        int layerStart = 0;
+        for (int distance = 0; distance <= maxDistance && layerStart < layers.size; distance++) {
+            final int layerEnd = layers.size;
+            for (int entry = layerStart; entry < layerEnd; entry++) {
+                final int node = layers.nodes[entry];
+                if (distance >= minDistance) {
+                    results.get(distance).put(graph.getNode(node), new DamageAndPath(0, layers, entry));
+                }
+                if (distance == maxDistance) {
                     continue;
                 }
-                if (finalLap && !startNode.hasFinish() && node.hasFinish()) {
-                    result.put(node, new DamageAndPath(0, findPath(node, distance, distanceMap)));
+                if (context.finalLap && !graph.hasFinish(startNode) && graph.hasFinish(node)) {
+                    // Movement stops at the finish line regardless of the remaining distance
+                    final DamageAndPath stop = new DamageAndPath(0, layers, entry);
+                    for (int target = Math.max(minDistance, distance + 1); target <= maxDistance; target++) {
+                        results.get(target).put(graph.getNode(node), stop);
+                    }
                     continue;
                 }
-                final int finalDistance = distance;
-                node.forEachChild(next -> {
-                    if (forbiddenNodes.contains(next)) {
+                final boolean isCurve = graph.isCurve(node);
+                for (int i = graph.getChildStart(node); i < graph.getChildEnd(node); i++) {
+                    final int next = graph.getChild(i);
+                    if (context.forbiddenNodes.contains(next)) {
                         // node is blocked
-                        return;
+                        continue;
                     }
-                    if (!allowPitEntry && next.getType() == NodeType.PIT) {
+                    if (!allowPitEntry && graph.isPit(next)) {
                         // cannot enter pits on final lap or with too large gear
-                        return;
+                        continue;
                     }
-                    if (node.isCurve() || next.isCurve()) {
-                        if (!node.isCurve()) {
+                    final boolean nextIsCurve = graph.isCurve(next);
+                    if (isCurve || nextIsCurve) {
+                        if (!isCurve) {
                             // entering curve
                             if (allowCurveEntry) {
-                                addWork(next, finalDistance, distanceMap);
+                                layers.add(next, entry, distance + 1);
                             }
-                        } else if (!next.isCurve()) {
+                        } else if (!nextIsCurve) {
                             // exiting curve
-                            final int stopsToDo = node.getStopCount() - stopsDone;
+                            final int stopsToDo = graph.getStopCount(node) - stopsDone;
                             if (stopsToDo <= 1) {
                                 final boolean allowEntry = stopsToDo <= 0;
-                                final int damage = stopsToDo <= 0 ? 0 : targetDistance - finalDistance;
-                                final List<Node> path = findPath(node, finalDistance, distanceMap);
-                                findNodes(next, targetDistance - finalDistance - 1, forbiddenNodes, allowEntry, 0, finalLap, allowPitEntry)
-                                    .forEach((n, dp) -> result.merge(
+                                final int exitEntry = entry;
+                                final int minTarget = Math.max(minDistance, distance + 1);
+                                final Search exitSearch = context.search(graph, next, minTarget - distance - 1, maxDistance - distance - 1, allowEntry, 0, allowPitEntry);
+                                if (footprint != null) {
+                                    footprint.add(next);
+                                    footprint.addAll(exitSearch.footprint);
+                                }
+                                for (int target = minTarget; target <= maxDistance; target++) {
+                                    final int damage = stopsToDo <= 0 ? 0 : target - distance;
+                                    final Map<Node, DamageAndPath> result = results.get(target);
+                                    exitSearch.results.get(target - distance - 1).forEach((n, dp) -> result.merge(
                                         n,
-                                        dp.addPrefix(damage, path),
+                                        dp.addPrefix(damage, layers, exitEntry),
                                         (dp1, dp2) -> dp1.getDamage() <= dp2.getDamage() ? dp1 : dp2
                                     ));
+                                }
                             }
                         } else {
                             // curve
-                            addWork(next, finalDistance, distanceMap);
+                            layers.add(next, entry, distance + 1);
                         }
-                    } else {
+                    } else if (!visited[next]) {
                         // straight
-                        if (visited.add(next)) {
-                            addWork(next, finalDistance, distanceMap);
-                        }
+                        visited[next] = true;
+                        layers.add(next, entry, distance + 1);
                     }
-                });
+                }
+            }
+            layerStart = layerEnd;
+        }
+        if (footprint != null) {
+            for (int entry = 1; entry < layers.size; entry++) {
+                footprint.add(layers.nodes[entry]);
             }
         }
-        return result;
+        return new Search(minDistance, results, footprint);
     }
 
-    public static Map<Node, DamageAndPath> findTargetNodes(Node node, int gear, int roll, int hitpoints, int curveStops, int lapsToGo, Set<Node> forbiddenNodes, boolean start) {
-        final boolean finalLap = lapsToGo == 0;
-        final boolean allowPitEntry = !finalLap && gear < 5 && !start;
-        final Map<Node, DamageAndPath> result = NodeUtil.findNodes(node, roll, forbiddenNodes, true, curveStops, finalLap, allowPitEntry);
-        final Map<Node, DamageAndPath> targets = new HashMap<>();
-        for (Map.Entry<Node, DamageAndPath> entry : result.entrySet()) {
-            if (entry.getValue().getDamage() < hitpoints) {
-                targets.put(entry.getKey(), entry.getValue());
+    /**
+     * Finds the target nodes for all distances from minRoll to maxRoll at once. Index of the returned list
+     * is the distance, and only targets with less damage than the given hitpoints are included. The
+     * precomputed reachability table of the track is used when the blocked nodes do not affect it, and
+     * other searches are cached with the blocked nodes that affect them.
+     */
+    public static List<Map<Node, DamageAndPath>> findTargetNodes(SearchContext context, Node node, int gear, int minRoll, int maxRoll, int hitpoints, int curveStops, boolean start) {
+        final boolean allowPitEntry = !context.finalLap && gear < 5 && !start;
+        final TrackGraph graph = node.getGraph();
+        final int startNode = graph.indexOf(node);
+        final ReachabilityTable table = graph.getReachabilityTable();
+        NodeSet footprint = null;
+        if (table != null) {
+            final List<Map<Node, DamageAndPath>> targets = table.findTargets(graph, startNode, minRoll, maxRoll, hitpoints, curveStops, context.finalLap, allowPitEntry, context.forbiddenNodes);
+            if (targets != null) {
+                return targets;
             }
+            footprint = table.getFootprint(graph, startNode, maxRoll, curveStops, context.finalLap, allowPitEntry);
+        }
+        // Only blocked nodes examined by the search can affect it
+        final NodeSet blockedNodes = new NodeSet(context.forbiddenNodes);
+        if (footprint != null) {
+            blockedNodes.retainAll(footprint);
+        } else if (maxRoll <= ReachabilityTable.MAX_DISTANCE) {
+            // Blocked nodes further away cannot affect the search
+            blockedNodes.retainAll(graph.getSearchArea(startNode));
+            blockedNodes.remove(startNode);
+        } else {
+            blockedNodes.remove(startNode);
+        }
+        final MoveCache.Key key = new MoveCache.Key(graph, startNode, curveStops, context.finalLap, allowPitEntry, blockedNodes);
+        Search search = moveCache.get(key, minRoll, maxRoll);
+        if (search == null) {
+            search = context.search(graph, startNode, minRoll, maxRoll, true, curveStops, allowPitEntry);
+            moveCache.put(key, search);
+        }
+        final List<Map<Node, DamageAndPath>> results = search.results;
+        final List<Map<Node, DamageAndPath>> targets = new ArrayList<>(maxRoll + 1);
+        for (int distance = 0; distance <= maxRoll; distance++) {
+            final Map<Node, DamageAndPath> validTargets = new HashMap<>();
+            if (distance >= minRoll) {
+                for (Map.Entry<Node, DamageAndPath> entry : results.get(distance).entrySet()) {
+                    if (entry.getValue().getDamage() < hitpoints) {
+                        validTargets.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            targets.add(validTargets);
+        }
+        return targets;
+    }
+
+    /**
+     * Same as findTargetNodes, but only finds the minimum damage of each target and no paths. Uses the
+     * bit-parallel frontier search, which is faster when the paths are not needed.
+     */
+    public static List<Map<Node, Integer>> findTargetDamages(SearchContext context, Node node, int gear, int minRoll, int maxRoll, int hitpoints, int curveStops, boolean start) {
+        final boolean allowPitEntry = !context.finalLap && gear < 5 && !start;
+        final TrackGraph graph = node.getGraph();
+        final List<Map<Node, Integer>> targets = context.getFrontierSearch(graph, allowPitEntry).findTargets(graph.indexOf(node), minRoll, maxRoll, curveStops);
+        for (Map<Node, Integer> damages : targets) {
+            damages.values().removeIf(damage -> damage >= hitpoints);
         }
         return targets;
     }
+
+    /**
+     * Returns the cache of searches shared by all players, e.g. for checking hit counts.
+     */
+    public static MoveCache getMoveCache() {
+        return moveCache;
+    }
+
+    public static List<Map<Node, DamageAndPath>> findTargetNodes(Node node, int gear, int minRoll, int maxRoll, int hitpoints, int curveStops, int lapsToGo, NodeSet forbiddenNodes, boolean start) {
+        return findTargetNodes(new SearchContext(forbiddenNodes, lapsToGo), node, gear, minRoll, maxRoll, hitpoints, curveStops, start);
+    }
+
+    public static Map<Node, DamageAndPath> findTargetNodes(Node node, int gear, int roll, int hitpoints, int curveStops, int lapsToGo, NodeSet forbiddenNodes, boolean start) {
+        return findTargetNodes(node, gear, roll, roll, hitpoints, curveStops, lapsToGo, forbiddenNodes, start).get(roll);
+    }
 }
@@ -164,11 +164,14 @@ public class ProfileMessage implements Serializable {
     AI createAI(TrackData data) {
         final int multiplier = hpMultiplier == 0 ? 100 : hpMultiplier;
         if (aiType == null) return null;
+        final BaseAI ai;
         switch (aiType) {
-            case BEGINNER: return new BeginnerAI(data) { @Override public int getHitpointsMultiplier() { return multiplier; }};
-            case AMATEUR: return new AmateurAI(data) { @Override public int getHitpointsMultiplier() { return multiplier; }};
-            case PRO: return new ProAI(data) { @Override public int getHitpointsMultiplier() { return multiplier; }};
+            case BEGINNER: ai = new BeginnerAI(data) { @Override public int getHitpointsMultiplier() { return multiplier; }}; break;
+            case AMATEUR: ai = new AmateurAI(data) { @Override public int getHitpointsMultiplier() { return multiplier; }}; break;
+            case PRO: ai = new ProAI(data) { @Override public int getHitpointsMultiplier() { return multiplier; }}; break;
+            default: return null;
         }
-        return null;
+        ai.setSearchBudget(SearchBudget.of(aiType));
+        return ai;
     }
 }
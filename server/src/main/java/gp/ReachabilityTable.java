@@ -0,0 +1,269 @@
+package gp;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import gp.ai.Node;
+import gp.ai.NodeSet;
+import gp.ai.TrackCache;
+import gp.ai.TrackData;
+import gp.ai.TrackGraph;
+
+/**
+ * Targets and damage reachable from each node of a track without other cars on it, for every distance
+ * up to MAX_DISTANCE. The table is computed once per track and stored in the cache file of the track.
+ * Each entry also has the set of nodes its search examined, so the entry can be used whenever none of
+ * the blocked nodes belong to that set.
+ */
+public final class ReachabilityTable {
+    // Longest roll is 30, sliding in rain adds up to 3
+    public static final int MAX_DISTANCE = 33;
+    private static final int MAGIC = 0x46445254;
+    private static final int VERSION = 1;
+    private static final int STOP_COUNTS = 4;
+    // Not final lap with pit entry, not final lap without pit entry, final lap
+    private static final int MODES = 3;
+    private static final int DAMAGE_BITS = 8;
+
+    private final long checksum;
+    private final int nodeCount;
+    // Start of the targets of each entry and distance in the targets array
+    private final int[] offsets;
+    // Target node index and damage packed in one value
+    private final int[] targets;
+    private final NodeSet[] footprints;
+
+    private ReachabilityTable(long checksum, int nodeCount, int[] offsets, int[] targets, NodeSet[] footprints) {
+        this.checksum = checksum;
+        this.nodeCount = nodeCount;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.footprints = footprints;
+    }
+
+    private static int getEntry(int node, int stopsDone, boolean finalLap, boolean allowPitEntry) {
+        final int mode = finalLap ? 2 : (allowPitEntry ? 0 : 1);
+        return (node * STOP_COUNTS + Math.min(stopsDone, STOP_COUNTS - 1)) * MODES + mode;
+    }
+
+    /**
+     * Computes the table in parallel over the nodes of the track.
+     */
+    public static ReachabilityTable compute(TrackGraph graph) {
+        final int nodeCount = graph.size();
+        final int entryCount = nodeCount * STOP_COUNTS * MODES;
+        final int[][] entryTargets = new int[entryCount * (MAX_DISTANCE + 1)][];
+        final NodeSet[] footprints = new NodeSet[entryCount];
+        IntStream.range(0, nodeCount).parallel().forEach(node -> {
+            for (int lapsToGo = 1; lapsToGo >= 0; lapsToGo--) {
+                final boolean finalLap = lapsToGo == 0;
+                // Shared by all entries of the node, so sub-searches from curve exits are reused
+                final NodeUtil.SearchContext context = new NodeUtil.SearchContext(new NodeSet(), lapsToGo, true);
+                for (int stopsDone = 0; stopsDone < STOP_COUNTS; stopsDone++) {
+                    for (int pit = 0; pit < (finalLap ? 1 : 2); pit++) {
+                        final boolean allowPitEntry = !finalLap && pit == 0;
+                        final int entry = getEntry(node, stopsDone, finalLap, allowPitEntry);
+                        final NodeUtil.Search search = context.search(graph, node, 0, MAX_DISTANCE, true, stopsDone, allowPitEntry);
+                        for (int distance = 0; distance <= MAX_DISTANCE; distance++) {
+                            entryTargets[entry * (MAX_DISTANCE + 1) + distance] = search.results.get(distance).entrySet().stream()
+                                    .mapToInt(e -> pack(graph.indexOf(e.getKey()), e.getValue().getDamage()))
+                                    .sorted()
+                                    .toArray();
+                        }
+                        footprints[entry] = search.footprint;
+                    }
+                }
+            }
+        });
+        final int[] offsets = new int[entryTargets.length + 1];
+        for (int i = 0; i < entryTargets.length; i++) {
+            offsets[i + 1] = offsets[i] + entryTargets[i].length;
+        }
+        final int[] targets = new int[offsets[entryTargets.length]];
+        for (int i = 0; i < entryTargets.length; i++) {
+            System.arraycopy(entryTargets[i], 0, targets, offsets[i], entryTargets[i].length);
+        }
+        return new ReachabilityTable(graph.getChecksum(), nodeCount, offsets, targets, footprints);
+    }
+
+    private static int pack(int node, int damage) {
+        // Damage is only compared with hitpoints, so larger values do not need to be exact
+        return (node << DAMAGE_BITS) | Math.min(damage, (1 << DAMAGE_BITS) - 1);
+    }
+
+    /**
+     * Returns the targets for the distances from minDistance to maxDistance with less damage than the
+     * given hitpoints, in the same format as NodeUtil.findTargetNodes. Returns null if the table does
+     * not cover the search, e.g. when a blocked node affects it.
+     */
+    List<Map<Node, DamageAndPath>> findTargets(TrackGraph graph, int start, int minDistance, int maxDistance, int hitpoints, int stopsDone, boolean finalLap, boolean allowPitEntry, NodeSet forbiddenNodes) {
+        if (maxDistance > MAX_DISTANCE || graph.size() != nodeCount) {
+            return null;
+        }
+        final int entry = getEntry(start, stopsDone, finalLap, allowPitEntry);
+        if (footprints[entry].intersects(forbiddenNodes)) {
+            return null;
+        }
+        final PathSource source = new PathSource(graph, start, maxDistance, stopsDone, finalLap, allowPitEntry);
+        final List<Map<Node, DamageAndPath>> results = new ArrayList<>(maxDistance + 1);
+        for (int distance = 0; distance <= maxDistance; distance++) {
+            final Map<Node, DamageAndPath> validTargets = new HashMap<>();
+            if (distance >= minDistance) {
+                final int index = entry * (MAX_DISTANCE + 1) + distance;
+                for (int i = offsets[index]; i < offsets[index + 1]; i++) {
+                    final int damage = targets[i] & ((1 << DAMAGE_BITS) - 1);
+                    if (damage < hitpoints) {
+                        final Node target = graph.getNode(targets[i] >>> DAMAGE_BITS);
+                        final int targetDistance = distance;
+                        validTargets.put(target, new DamageAndPath(damage, () -> source.get(targetDistance, target)));
+                    }
+                }
+            }
+            results.add(validTargets);
+        }
+        return results;
+    }
+
+    /**
+     * Returns the nodes whose blocking may affect the given search, or null if the table does not cover it.
+     */
+    NodeSet getFootprint(TrackGraph graph, int start, int maxDistance, int stopsDone, boolean finalLap, boolean allowPitEntry) {
+        if (maxDistance > MAX_DISTANCE || graph.size() != nodeCount) {
+            return null;
+        }
+        return footprints[getEntry(start, stopsDone, finalLap, allowPitEntry)];
+    }
+
+    // Searches paths for the targets of one query when the first path is needed. The search does not
+    // need the blocked nodes, as the table is only used when they do not affect it.
+    private static final class PathSource {
+        private final TrackGraph graph;
+        private final int start;
+        private final int maxDistance;
+        private final int stopsDone;
+        private final boolean finalLap;
+        private final boolean allowPitEntry;
+        private List<Map<Node, DamageAndPath>> results;
+
+        private PathSource(TrackGraph graph, int start, int maxDistance, int stopsDone, boolean finalLap, boolean allowPitEntry) {
+            this.graph = graph;
+            this.start = start;
+            this.maxDistance = maxDistance;
+            this.stopsDone = stopsDone;
+            this.finalLap = finalLap;
+            this.allowPitEntry = allowPitEntry;
+        }
+
+        private synchronized DamageAndPath get(int distance, Node target) {
+            if (results == null) {
+                final NodeUtil.SearchContext context = new NodeUtil.SearchContext(new NodeSet(), finalLap ? 0 : 1);
+                results = context.search(graph, start, 0, maxDistance, true, stopsDone, allowPitEntry).results;
+            }
+            return results.get(distance).get(target);
+        }
+    }
+
+    public void write(OutputStream os) throws IOException {
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(os)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(checksum);
+        out.writeInt(nodeCount);
+        out.writeInt(MAX_DISTANCE);
+        out.writeInt(targets.length);
+        for (int i = 0; i < offsets.length - 1; i++) {
+            out.writeShort(offsets[i + 1] - offsets[i]);
+        }
+        for (int target : targets) {
+            out.writeInt(target);
+        }
+        for (NodeSet footprint : footprints) {
+            final long[] words = footprint.toLongArray();
+            out.writeShort(words.length);
+            for (long word : words) {
+                out.writeLong(word);
+            }
+        }
+        out.flush();
+        out.close();
+    }
+
+    /**
+     * Reads a table written by write. Returns null if the table was computed for a different track
+     * or with an older version of the format.
+     */
+    public static ReachabilityTable read(InputStream is, TrackGraph graph) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(is)));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            return null;
+        }
+        final long checksum = in.readLong();
+        final int nodeCount = in.readInt();
+        if (checksum != graph.getChecksum() || nodeCount != graph.size() || in.readInt() != MAX_DISTANCE) {
+            return null;
+        }
+        final int entryCount = nodeCount * STOP_COUNTS * MODES;
+        final int[] targets = new int[in.readInt()];
+        final int[] offsets = new int[entryCount * (MAX_DISTANCE + 1) + 1];
+        for (int i = 0; i < offsets.length - 1; i++) {
+            offsets[i + 1] = offsets[i] + in.readUnsignedShort();
+        }
+        if (offsets[offsets.length - 1] != targets.length) {
+            throw new IOException("Corrupted reachability table");
+        }
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = in.readInt();
+        }
+        final NodeSet[] footprints = new NodeSet[entryCount];
+        for (int i = 0; i < entryCount; i++) {
+            final long[] words = new long[in.readUnsignedShort()];
+            for (int j = 0; j < words.length; j++) {
+                words[j] = in.readLong();
+            }
+            footprints[i] = NodeSet.valueOf(words);
+        }
+        return new ReachabilityTable(checksum, nodeCount, offsets, targets, footprints);
+    }
+
+    /**
+     * Attaches the table to the track in the background at low priority. The table is read from the
+     * cache file of the track if it is up to date, otherwise it is computed and the file is written.
+     * Searches fall back to live search until the table is available.
+     */
+    public static CompletableFuture<Void> prepare(TrackData data) {
+        final TrackGraph graph = data.getGraph();
+        return CompletableFuture.runAsync(() -> {
+            if (graph.getReachabilityTable() != null) {
+                return;
+            }
+            final File file = TrackCache.getFile(data, "rch");
+            if (file.exists()) {
+                try (InputStream is = new FileInputStream(file)) {
+                    graph.setReachabilityTable(read(is, graph));
+                } catch (IOException e) {
+                    Main.log.log(Level.WARNING, "Failed to read reachability table for " + data.getTrackId(), e);
+                }
+            }
+            if (graph.getReachabilityTable() != null) {
+                return;
+            }
+            final long startTime = System.currentTimeMillis();
+            final ReachabilityTable table = compute(graph);
+            graph.setReachabilityTable(table);
+            Main.log.info("Computed reachability table for " + data.getTrackId() + " in " + (System.currentTimeMillis() - startTime) + " ms");
+            try {
+                TrackCache.write(file, table::write);
+            } catch (IOException e) {
+                Main.log.log(Level.WARNING, "Failed to write reachability table for " + data.getTrackId(), e);
+            }
+        }, TrackCache.EXECUTOR);
+    }
+}
@@ -29,6 +29,22 @@ public interface AI {
      */
     SelectedIndex selectMove(Moves moves);
 
+    /**
+     * Same as selectGear, but the server expects the answer by the given deadline, in milliseconds as
+     * returned by System.currentTimeMillis. AIs which can trade time for quality should return the best
+     * gear found so far when the deadline comes. Long.MAX_VALUE means that there is no deadline.
+     */
+    default Gear selectGear(GameState gameState, long deadline) {
+        return selectGear(gameState);
+    }
+
+    /**
+     * Same as selectMove, with a deadline as in selectGear.
+     */
+    default SelectedIndex selectMove(Moves moves, long deadline) {
+        return selectMove(moves);
+    }
+
     default int getHitpointsMultiplier() { return 100; }
 
     void notify(Object notification);
@@ -59,107 +59,113 @@ public abstract class AIUtil {
     }
 
     // Returns -1 if the next curve is not reachable. Otherwise returns the minimum distance to the curve.
-    static int getMinDistanceToNextCurve(Node node, Set<Node> blockedNodes) {
-        if (node.isCurve()) {
-            final Map<Node, Integer> nextStraight = findMinDistancesToNextAreaStart(node, false, blockedNodes);
-            if (nextStraight.isEmpty()) {
-                return -1;
-            }
-            return nextStraight
-                    .entrySet()
-                    .stream()
-                    .map(e -> {
-                        final int extraDistance = findMinDistancesToNextAreaStart(e.getKey(), false, blockedNodes).values().stream().mapToInt(Integer::intValue).min().orElse(-1);
-                        return extraDistance == -1 ? -1 : extraDistance + e.getValue();
-                    })
-                    .mapToInt(Integer::intValue)
-                    .filter(i -> i != -1)
-                    .min()
-                    .orElse(-1);
-        } else {
-            return findMinDistancesToNextAreaStart(node, false, blockedNodes).values().stream().mapToInt(Integer::intValue).min().orElse(-1);
+    static int getMinDistanceToNextCurve(Node node, NodeSet blockedNodes) {
+        final TrackGraph graph = node.getGraph();
+        if (blockedNodes.isEmpty()) {
+            return graph.getAnalysis().getMinDistanceToNextCurve(node, blockedNodes);
         }
+        return new AreaDistances(graph, blockedNodes, false).getMinDistanceToNextCurve(graph.indexOf(node), null);
     }
 
     // Returns the maximum distance without taking damage.
-    static int getMaxDistanceWithoutDamage(Node startNode, int stopCount, Set<Node> blockedNodes) {
-        if (startNode.getStopCount() > stopCount) {
-            return findMaxDistanceInThisArea(startNode, blockedNodes);
-        }
-        final Map<Node, Integer> nextAreaStart = findMaxDistancesToNextAreaStart(startNode, blockedNodes);
-        if (nextAreaStart.isEmpty()) {
-            return findMaxDistanceInThisArea(startNode, blockedNodes);
+    static int getMaxDistanceWithoutDamage(Node startNode, int stopCount, NodeSet blockedNodes) {
+        final TrackGraph graph = startNode.getGraph();
+        if (blockedNodes.isEmpty()) {
+            return graph.getAnalysis().getMaxDistanceWithoutDamage(startNode, stopCount, blockedNodes);
         }
-        return nextAreaStart
-                .entrySet()
-                .stream()
-                .map(e -> getMaxDistanceWithoutDamage(e.getKey(), 0, blockedNodes) + e.getValue())
-                .mapToInt(Integer::intValue)
-                .max()
-                .orElse(0);
+        return new AreaDistances(graph, blockedNodes, false).getMaxDistanceWithoutDamage(graph.indexOf(startNode), stopCount, null);
     }
 
     // Returns the minimum distance to take damage without opponents.
     static int getMinDistanceToTakeDamage(Node startNode, int stopCount) {
-        final Map<Node, Integer> nextAreaStart = findMinDistancesToNextAreaStart(startNode, false);
-        if (nextAreaStart.isEmpty()) {
-            return 1;
-        }
-        if (startNode.getStopCount() > stopCount) {
-            return nextAreaStart.values().stream().mapToInt(Integer::intValue).min().orElse(1);
+        return startNode.getGraph().getAnalysis().getMinDistanceToTakeDamage(startNode, stopCount);
+    }
+
+    static int getMinDistanceToPits(Node startNode, NodeSet blockedNodes) {
+        final TrackGraph graph = startNode.getGraph();
+        final int[] distances = newDistanceArray(graph);
+        final int[] work = new int[graph.size()];
+        int head = 0;
+        int tail = 0;
+        int maxDistance = 0;
+        final int start = graph.indexOf(startNode);
+        distances[start] = 0;
+        work[tail++] = start;
+        while (head < tail) {
+            final int node = work[head++];
+            final int newDistance = distances[node] + 1;
+            for (int i = graph.getChildStart(node); i < graph.getChildEnd(node); i++) {
+                final int child = graph.getChild(i);
+                if (blockedNodes.contains(child) || distances[child] >= 0) {
+                    continue;
+                }
+                distances[child] = newDistance;
+                maxDistance = Math.max(maxDistance, newDistance);
+                if (graph.isPit(child)) {
+                    head = tail;
+                } else {
+                    work[tail++] = child;
+                }
+            }
         }
-        return nextAreaStart
-                .entrySet()
-                .stream()
-                .map(e -> getMinDistanceToTakeDamage(e.getKey(), 0) + e.getValue())
-                .mapToInt(Integer::intValue)
-                .min()
-                .orElse(1);
+        return maxDistance;
     }
 
-    static int getMinDistanceToPits(Node startNode, Set<Node> blockedNodes) {
-        final Deque<Node> work = new ArrayDeque<>();
-        final Map<Node, Integer> distances = new HashMap<>();
-        distances.put(startNode, 0);
-        work.addLast(startNode);
-        while (!work.isEmpty()) {
-            final Node node = work.removeFirst();
-            final int newDistance = distances.get(node) + 1;
-            node.childStream().filter(child -> !blockedNodes.contains(child)).forEach(child -> {
-                final Integer distance = distances.get(child);
-                if (distance == null) {
-                    distances.put(child, newDistance);
-                    if (child.isPit()) {
-                        work.clear();
-                    } else {
-                        work.addLast(child);
-                    }
+    /**
+     * Returns the distances of the nodes within the given distance from the start node, ignoring
+     * other players.
+     */
+    static Map<Node, Integer> getNodeDistances(Node startNode, int maxDistance) {
+        final TrackGraph graph = startNode.getGraph();
+        final int[] distances = newDistanceArray(graph);
+        final int[] work = new int[graph.size()];
+        int head = 0;
+        int tail = 0;
+        final int start = graph.indexOf(startNode);
+        distances[start] = 0;
+        work[tail++] = start;
+        final Map<Node, Integer> result = new HashMap<>();
+        while (head < tail) {
+            final int node = work[head++];
+            result.put(graph.getNode(node), distances[node]);
+            if (distances[node] >= maxDistance) {
+                continue;
+            }
+            for (int i = graph.getChildStart(node); i < graph.getChildEnd(node); i++) {
+                final int child = graph.getChild(i);
+                if (distances[child] < 0) {
+                    distances[child] = distances[node] + 1;
+                    work[tail++] = child;
                 }
-            });
+            }
         }
-        return distances.values().stream().mapToInt(Integer::intValue).max().orElse(-1);
+        return result;
     }
 
-    private static int findMaxDistanceInThisArea(Node startNode, Set<Node> blockedNodes) {
-        final boolean startNodeIsCurve = startNode.isCurve();
-        final Deque<Node> work = new ArrayDeque<>();
-        final Map<Node, Integer> matchingTypeDistances = new HashMap<>();
-        matchingTypeDistances.put(startNode, 0);
+    private static int findMaxDistanceInThisArea(TrackGraph graph, int startNode, NodeSet blocked, NodeSet examined) {
+        final boolean startNodeIsCurve = graph.isCurve(startNode);
+        final IntQueue work = new IntQueue();
+        final int[] matchingTypeDistances = newDistanceArray(graph);
+        matchingTypeDistances[startNode] = 0;
         work.addLast(startNode);
+        int maxDistance = 0;
         while (!work.isEmpty()) {
-            final Node node = work.removeFirst();
-            final int newDistance = matchingTypeDistances.get(node) + 1;
-            node.childStream().filter(child -> !blockedNodes.contains(child)).forEach(child -> {
-                if (child.isCurve() == startNodeIsCurve) {
-                    final Integer distance = matchingTypeDistances.get(child);
-                    if (distance == null || (startNodeIsCurve && newDistance > distance)) {
-                        matchingTypeDistances.put(child, newDistance);
-                        work.addLast(child);
-                    }
+            final int node = work.removeFirst();
+            final int newDistance = matchingTypeDistances[node] + 1;
+            for (int i = graph.getChildStart(node); i < graph.getChildEnd(node); i++) {
+                final int child = graph.getChild(i);
+                if (isBlocked(blocked, examined, child) || graph.isCurve(child) != startNodeIsCurve) {
+                    continue;
                 }
-            });
+                final int distance = matchingTypeDistances[child];
+                if (distance < 0 || (startNodeIsCurve && newDistance > distance)) {
+                    matchingTypeDistances[child] = newDistance;
+                    maxDistance = Math.max(maxDistance, newDistance);
+                    work.addLast(child);
+                }
+            }
         }
-        return matchingTypeDistances.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+        return maxDistance;
     }
 
     static int getStopsRequiredInNextCurve(Node startNode) {
@@ -174,115 +180,92 @@ public abstract class AIUtil {
     }
 
     static Node recurseWhile(Node node, boolean isCurve, boolean inPits) {
-        if (node.isCurve() == isCurve) {
-            final Node next;
-            if (inPits) {
-                next = node.childStream().findAny().orElse(null);
-            } else {
-                next = node.childStream().filter(child -> !child.isPit()).findAny().orElse(null);
-            }
-            return next == null ? node : recurseWhile(next, isCurve, inPits);
-        } else {
-            return node;
-        }
-    }
-
-    private static int findMaxDistanceToStraight(Node startNode) {
-        if (!startNode.isCurve()) {
-            return 0;
-        }
-        return startNode
-                .childStream()
-                .map(AIUtil::findMaxDistanceToStraight)
-                .mapToInt(Integer::intValue)
-                .max()
-                .orElse(0) + 1;
-    }
-
-    private static int getMaxDistanceToNextStraight(Node startNode) {
-        if (startNode.isCurve()) {
-            return findMaxDistanceToStraight(startNode);
-        } else {
-            return findMaxDistancesToNextAreaStart(startNode)
-                    .entrySet()
-                    .stream()
-                    .map(e -> findMaxDistanceToStraight(e.getKey()) + e.getValue())
-                    .mapToInt(Integer::intValue)
-                    .max()
-                    .orElse(0);
+        final TrackGraph graph = node.getGraph();
+        int current = graph.indexOf(node);
+        while (graph.isCurve(current) == isCurve) {
+            int next = -1;
+            for (int i = graph.getChildStart(current); i < graph.getChildEnd(current); i++) {
+                final int child = graph.getChild(i);
+                if (inPits || !graph.isPit(child)) {
+                    next = child;
+                    break;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            current = next;
         }
+        return graph.getNode(current);
     }
 
     static int getMaxDistanceToStraightAfterNextCurve(Node startNode) {
-        if (startNode.isCurve()) {
-            return findMaxDistancesToNextAreaStart(startNode)
-                    .entrySet()
-                    .stream()
-                    .map(e -> getMaxDistanceToNextStraight(e.getKey()) + e.getValue())
-                    .mapToInt(Integer::intValue)
-                    .max()
-                    .orElse(0);
-        } else {
-            return getMaxDistanceToNextStraight(startNode);
-        }
+        return startNode.getGraph().getAnalysis().getMaxDistanceToStraightAfterNextCurve(startNode);
     }
 
-    private static Map<Node, Integer> findMaxDistancesToNextAreaStart(Node startNode) {
-        return findMaxDistancesToNextAreaStart(startNode, Collections.emptySet());
-    }
-
-    private static Map<Node, Integer> findMaxDistancesToNextAreaStart(Node startNode, Set<Node> blockedNodes) {
-        final NodeType type = startNode.getType();
-        if (startNode.isCurve() || startNode.isPit()) {
-            final Deque<Node> work = new ArrayDeque<>();
-            final Map<Node, Integer> matchingTypeDistances = new HashMap<>();
-            final Map<Node, Integer> nonMatchingTypeDistances = new HashMap<>();
-            matchingTypeDistances.put(startNode, 0);
+    // Keys of the returned map are node indices
+    private static Map<Integer, Integer> findMaxDistancesToNextAreaStart(TrackGraph graph, int startNode, NodeSet blocked, NodeSet examined) {
+        final NodeType type = graph.getType(startNode);
+        if (graph.isCurve(startNode) || graph.isPit(startNode)) {
+            final IntQueue work = new IntQueue();
+            final int[] matchingTypeDistances = newDistanceArray(graph);
+            final Map<Integer, Integer> nonMatchingTypeDistances = new HashMap<>();
+            matchingTypeDistances[startNode] = 0;
             work.addLast(startNode);
             while (!work.isEmpty()) {
-                final Node node = work.removeLast();
-                final int newDistance = matchingTypeDistances.get(node) + 1;
-                node.childStream().filter(child -> !blockedNodes.contains(child)).forEach(child -> {
-                    if (child.getType() == type) {
-                        final Integer distance = matchingTypeDistances.get(child);
-                        if (distance == null || newDistance > distance) {
-                            matchingTypeDistances.put(child, newDistance);
+                final int node = work.removeLast();
+                final int newDistance = matchingTypeDistances[node] + 1;
+                for (int i = graph.getChildStart(node); i < graph.getChildEnd(node); i++) {
+                    final int child = graph.getChild(i);
+                    if (isBlocked(blocked, examined, child)) {
+                        continue;
+                    }
+                    if (graph.getType(child) == type) {
+                        if (newDistance > matchingTypeDistances[child]) {
+                            matchingTypeDistances[child] = newDistance;
                             work.addLast(child);
                         }
                     } else {
-                        final Integer distance = nonMatchingTypeDistances.get(child);
-                        if (distance == null || newDistance > distance) {
-                            nonMatchingTypeDistances.put(child, newDistance);
-                        }
+                        nonMatchingTypeDistances.merge(child, newDistance, Math::max);
                     }
-                });
+                }
             }
             return nonMatchingTypeDistances;
         } else {
-            return findMinDistancesToNextAreaStart(startNode, true, blockedNodes);
+            return findMinDistancesToNextAreaStart(graph, startNode, true, blocked, examined);
         }
     }
 
     static Map<Node, Integer> findMinDistancesToNextAreaStart(Node startNode, boolean allowNonOptimalLastMove) {
-        return findMinDistancesToNextAreaStart(startNode, allowNonOptimalLastMove, Collections.emptySet());
+        final TrackGraph graph = startNode.getGraph();
+        final Map<Node, Integer> distances = new HashMap<>();
+        findMinDistancesToNextAreaStart(graph, graph.indexOf(startNode), allowNonOptimalLastMove, new NodeSet(), null)
+                .forEach((node, distance) -> distances.put(graph.getNode(node), distance));
+        return distances;
     }
 
-    private static Map<Node, Integer> findMinDistancesToNextAreaStart(Node startNode, boolean allowNonOptimalLastMove, Set<Node> blockedNodes) {
-        final boolean startNodeIsCurve = startNode.isCurve();
-        final Deque<Node> work = new ArrayDeque<>();
-        final Map<Node, Integer> matchingTypeDistances = new HashMap<>();
-        final Map<Node, Integer> nonMatchingTypeDistances = new HashMap<>();
-        matchingTypeDistances.put(startNode, 0);
-        work.addLast(startNode);
-        while (!work.isEmpty()) {
-            final Node node = work.removeFirst();
-            final int newDistance = matchingTypeDistances.get(node) + 1;
-            node.childStream().filter(child -> !blockedNodes.contains(child)).forEach(child -> {
-                if (child.isCurve() == startNodeIsCurve) {
-                    final Integer distance = matchingTypeDistances.get(child);
-                    if (distance == null) {
-                        matchingTypeDistances.put(child, newDistance);
-                        work.addLast(child);
+    // Keys of the returned map are node indices
+    private static Map<Integer, Integer> findMinDistancesToNextAreaStart(TrackGraph graph, int startNode, boolean allowNonOptimalLastMove, NodeSet blocked, NodeSet examined) {
+        final boolean startNodeIsCurve = graph.isCurve(startNode);
+        final int[] work = new int[graph.size()];
+        int head = 0;
+        int tail = 0;
+        final int[] matchingTypeDistances = newDistanceArray(graph);
+        final Map<Integer, Integer> nonMatchingTypeDistances = new HashMap<>();
+        matchingTypeDistances[startNode] = 0;
+        work[tail++] = startNode;
+        while (head < tail) {
+            final int node = work[head++];
+            final int newDistance = matchingTypeDistances[node] + 1;
+            for (int i = graph.getChildStart(node); i < graph.getChildEnd(node); i++) {
+                final int child = graph.getChild(i);
+                if (isBlocked(blocked, examined, child)) {
+                    continue;
+                }
+                if (graph.isCurve(child) == startNodeIsCurve) {
+                    if (matchingTypeDistances[child] < 0) {
+                        matchingTypeDistances[child] = newDistance;
+                        work[tail++] = child;
                     }
                 } else {
                     final Integer distance = nonMatchingTypeDistances.get(child);
@@ -290,8 +273,223 @@ public abstract class AIUtil {
                         nonMatchingTypeDistances.put(child, newDistance);
                     }
                 }
-            });
+            }
         }
         return nonMatchingTypeDistances;
     }
+
+    private static boolean isBlocked(NodeSet blocked, NodeSet examined, int node) {
+        if (examined != null) {
+            examined.add(node);
+        }
+        return blocked.contains(node);
+    }
+
+    private static int[] newDistanceArray(TrackGraph graph) {
+        final int[] distances = new int[graph.size()];
+        Arrays.fill(distances, -1);
+        return distances;
+    }
+
+    /**
+     * Distances between area boundaries with the given nodes blocked. The recursions over the next
+     * areas reach the same area start nodes from many nodes, so the value of each area start node is
+     * searched once and reused. If footprints are tracked, the nodes checked by the searches of a value
+     * are added to the given examined set, including the nodes checked for reused values. Not
+     * thread-safe.
+     */
+    static final class AreaDistances {
+        private static final int UNKNOWN = Integer.MIN_VALUE;
+
+        private final TrackGraph graph;
+        final NodeSet blocked;
+        private final boolean trackFootprints;
+        // Values at stop count 0 by node index, and the footprints of their searches if tracked.
+        // Allocated on first use, as single queries with blocked nodes only need some of them.
+        private int[] maxDistanceWithoutDamage;
+        private NodeSet[] maxDistanceFootprints;
+        private int[] minDistanceToTakeDamage;
+        // Minimum distance to the next curve from nodes outside curves
+        private int[] minDistanceToCurve;
+        private NodeSet[] curveFootprints;
+        private int[] maxDistanceToStraight;
+
+        AreaDistances(TrackGraph graph, NodeSet blocked, boolean trackFootprints) {
+            this.graph = graph;
+            this.blocked = blocked;
+            this.trackFootprints = trackFootprints;
+        }
+
+        private static int[] newUnknownArray(TrackGraph graph) {
+            final int[] values = new int[graph.size()];
+            Arrays.fill(values, UNKNOWN);
+            return values;
+        }
+
+        // Returns -1 if the next curve is not reachable
+        int getMinDistanceToNextCurve(int start, NodeSet examined) {
+            if (!graph.isCurve(start)) {
+                return getMinDistanceToCurve(start, examined);
+            }
+            int minDistance = -1;
+            for (Map.Entry<Integer, Integer> e : findMinDistancesToNextAreaStart(graph, start, false, blocked, examined).entrySet()) {
+                final int extraDistance = getMinDistanceToCurve(e.getKey(), examined);
+                if (extraDistance != -1 && (minDistance == -1 || extraDistance + e.getValue() < minDistance)) {
+                    minDistance = extraDistance + e.getValue();
+                }
+            }
+            return minDistance;
+        }
+
+        private int getMinDistanceToCurve(int start, NodeSet examined) {
+            if (minDistanceToCurve == null) {
+                minDistanceToCurve = newUnknownArray(graph);
+                curveFootprints = new NodeSet[graph.size()];
+            }
+            if (minDistanceToCurve[start] == UNKNOWN) {
+                final NodeSet footprint = trackFootprints ? new NodeSet() : null;
+                minDistanceToCurve[start] = findMinDistancesToNextAreaStart(graph, start, false, blocked, footprint).values().stream().mapToInt(Integer::intValue).min().orElse(-1);
+                curveFootprints[start] = footprint;
+            }
+            addFootprint(examined, curveFootprints[start]);
+            return minDistanceToCurve[start];
+        }
+
+        int getMaxDistanceWithoutDamage(int start, int stopCount, NodeSet examined) {
+            if (stopCount != 0) {
+                return findMaxDistanceWithoutDamage(start, stopCount, examined);
+            }
+            if (maxDistanceWithoutDamage == null) {
+                maxDistanceWithoutDamage = newUnknownArray(graph);
+                maxDistanceFootprints = new NodeSet[graph.size()];
+            }
+            if (maxDistanceWithoutDamage[start] == UNKNOWN) {
+                final NodeSet footprint = trackFootprints ? new NodeSet() : null;
+                maxDistanceWithoutDamage[start] = findMaxDistanceWithoutDamage(start, 0, footprint);
+                maxDistanceFootprints[start] = footprint;
+            }
+            addFootprint(examined, maxDistanceFootprints[start]);
+            return maxDistanceWithoutDamage[start];
+        }
+
+        private int findMaxDistanceWithoutDamage(int start, int stopCount, NodeSet examined) {
+            if (graph.getStopCount(start) > stopCount) {
+                return findMaxDistanceInThisArea(graph, start, blocked, examined);
+            }
+            final Map<Integer, Integer> nextAreaStart = findMaxDistancesToNextAreaStart(graph, start, blocked, examined);
+            if (nextAreaStart.isEmpty()) {
+                return findMaxDistanceInThisArea(graph, start, blocked, examined);
+            }
+            int maxDistance = 0;
+            for (Map.Entry<Integer, Integer> e : nextAreaStart.entrySet()) {
+                maxDistance = Math.max(maxDistance, getMaxDistanceWithoutDamage(e.getKey(), 0, examined) + e.getValue());
+            }
+            return maxDistance;
+        }
+
+        int getMinDistanceToTakeDamage(int start, int stopCount) {
+            if (stopCount != 0) {
+                return findMinDistanceToTakeDamage(start, stopCount);
+            }
+            if (minDistanceToTakeDamage == null) {
+                minDistanceToTakeDamage = newUnknownArray(graph);
+            }
+            if (minDistanceToTakeDamage[start] == UNKNOWN) {
+                minDistanceToTakeDamage[start] = findMinDistanceToTakeDamage(start, 0);
+            }
+            return minDistanceToTakeDamage[start];
+        }
+
+        private int findMinDistanceToTakeDamage(int start, int stopCount) {
+            final Map<Integer, Integer> nextAreaStart = findMinDistancesToNextAreaStart(graph, start, false, blocked, null);
+            if (nextAreaStart.isEmpty()) {
+                return 1;
+            }
+            if (graph.getStopCount(start) > stopCount) {
+                return nextAreaStart.values().stream().mapToInt(Integer::intValue).min().orElse(1);
+            }
+            int minDistance = Integer.MAX_VALUE;
+            for (Map.Entry<Integer, Integer> e : nextAreaStart.entrySet()) {
+                minDistance = Math.min(minDistance, getMinDistanceToTakeDamage(e.getKey(), 0) + e.getValue());
+            }
+            return minDistance;
+        }
+
+        // Blocked nodes are ignored, as for a player alone in the curve
+        private int getMaxDistanceToStraight(int start) {
+            if (!graph.isCurve(start)) {
+                return 0;
+            }
+            if (maxDistanceToStraight == null) {
+                maxDistanceToStraight = newUnknownArray(graph);
+            }
+            if (maxDistanceToStraight[start] == UNKNOWN) {
+                int maxDistance = 0;
+                for (int i = graph.getChildStart(start); i < graph.getChildEnd(start); i++) {
+                    maxDistance = Math.max(maxDistance, getMaxDistanceToStraight(graph.getChild(i)));
+                }
+                maxDistanceToStraight[start] = maxDistance + 1;
+            }
+            return maxDistanceToStraight[start];
+        }
+
+        private int getMaxDistanceToNextStraight(int start) {
+            if (graph.isCurve(start)) {
+                return getMaxDistanceToStraight(start);
+            }
+            int maxDistance = 0;
+            for (Map.Entry<Integer, Integer> e : findMaxDistancesToNextAreaStart(graph, start, BaseAI.NO_NODES, null).entrySet()) {
+                maxDistance = Math.max(maxDistance, getMaxDistanceToStraight(e.getKey()) + e.getValue());
+            }
+            return maxDistance;
+        }
+
+        int getMaxDistanceToStraightAfterNextCurve(int start) {
+            if (!graph.isCurve(start)) {
+                return getMaxDistanceToNextStraight(start);
+            }
+            int maxDistance = 0;
+            for (Map.Entry<Integer, Integer> e : findMaxDistancesToNextAreaStart(graph, start, BaseAI.NO_NODES, null).entrySet()) {
+                maxDistance = Math.max(maxDistance, getMaxDistanceToNextStraight(e.getKey()) + e.getValue());
+            }
+            return maxDistance;
+        }
+
+        private static void addFootprint(NodeSet examined, NodeSet footprint) {
+            if (examined != null) {
+                examined.addAll(footprint);
+            }
+        }
+    }
+
+    // Growable queue of node indices, which can also be used as a stack
+    private static final class IntQueue {
+        private int[] elements = new int[64];
+        private int head;
+        private int tail;
+
+        boolean isEmpty() {
+            return head == tail;
+        }
+
+        void addLast(int element) {
+            if (tail == elements.length) {
+                final int size = tail - head;
+                final int[] target = size * 2 > elements.length ? new int[elements.length * 2] : elements;
+                System.arraycopy(elements, head, target, 0, size);
+                elements = target;
+                head = 0;
+                tail = size;
+            }
+            elements[tail++] = element;
+        }
+
+        int removeFirst() {
+            return elements[head++];
+        }
+
+        int removeLast() {
+            return elements[--tail];
+        }
+    }
 }
@@ -14,9 +14,11 @@ public class AmateurAI extends BaseAI {
     private PlayerState player;
     private int stopsNeeded;
     public boolean debug = false;
+    private final NodeSet pitNodes;
 
     public AmateurAI(TrackData data) {
         super(data);
+        pitNodes = new NodeSet(nodes.stream().filter(Node::isPit).collect(Collectors.toList()));
     }
 
     private static Pair<Integer, Integer> findGarage(Node node) {
@@ -37,17 +39,21 @@ public class AmateurAI extends BaseAI {
         return Pair.of(min, max);
     }
 
-    private static int getNextGear(int gearMask) {
-        double digitCount = ((int) Math.log10(gearMask)) + 1;
-        int nextGear = gearMask;
-        while (--digitCount > 1) {
-            nextGear = nextGear / 10;
-        }
-        return nextGear % 10;
+    /**
+     * Sets the number of simulated gear sequences, the time limit in milliseconds (zero for no limit)
+     * and the most threads used when selecting the gear, keeping the pondering of the search budget.
+     */
+    public void setSearchLimits(int iterations, long timeLimitMillis, int threads) {
+        budget = new SearchBudget(iterations, timeLimitMillis, threads, budget.isPondering());
     }
 
     @Override
     public gp.model.Gear selectGear(GameState gameState) {
+        return selectGear(gameState, Long.MAX_VALUE);
+    }
+
+    @Override
+    public gp.model.Gear selectGear(GameState gameState, long deadline) {
         playerMap = AIUtil.buildPlayerMap(gameState);
         player = playerMap.get(playerId);
         if (player == null) {
@@ -71,32 +77,22 @@ public class AmateurAI extends BaseAI {
         } else {
             stopsNeeded = 0;
         }
-        final Set<Node> blockedNodes = playerMap
-                .values()
-                .stream()
-                .filter(p -> p.getHitpoints() > 0 && p.getLapsToGo() >= 0)
-                .map(p -> nodes.get(p.getNodeId()))
-                .collect(Collectors.toSet());
-        final Set<Node> pitNodes = nodes.stream().filter(Node::isPit).collect(Collectors.toSet());
-        gearMaskToScores.clear();
-        gearMaskToMaxScore.clear();
-        gearMaskToMinScore.clear();
+        final NodeSet blockedNodes = getOccupiedNodes(gameState);
+        final int endgameGear = getEndgameGear(player, blockedNodes);
+        if (endgameGear > 0) {
+            gear = endgameGear;
+            return new gp.model.Gear().gear(gear).tires(tires);
+        }
         final GearEvaluator evaluator = new GearEvaluator(location, blockedNodes, pitNodes, player.getGear(), player.getStops(), player.getHitpoints(), player.getLapsToGo());
-        for (int i = 0; i < 100; ++i) {
-            evaluator.randomWalk();
+        // Search stops at the deadline even if the iterations or the time limit have not been used up
+        long timeLimit = budget.getTimeLimitMillis();
+        if (deadline != Long.MAX_VALUE) {
+            final long remaining = Math.max(1, deadline - System.currentTimeMillis());
+            timeLimit = timeLimit > 0 ? Math.min(timeLimit, remaining) : remaining;
         }
-        final Map<Integer, Integer> gearToMaxScore = new HashMap<>();
-        gearMaskToMaxScore.forEach((gearMask, score) -> {
-            final int nextGear = getNextGear(gearMask);
-            final Integer oldScore = gearToMaxScore.get(nextGear);
-            if (oldScore == null || score > oldScore) gearToMaxScore.put(nextGear, score);
-        });
-        final int riskGear = gearToMaxScore.entrySet().stream().max((e1, e2) -> e1.getValue() - e2.getValue()).map(e -> e.getKey()).orElse(-1);
-        final int avgGear = gearMaskToScores.entrySet().stream().max(Comparator.comparingInt(e -> e.getValue().stream().mapToInt(Integer::intValue).sum() / e.getValue().size())).map(e -> e.getKey()).map(AmateurAI::getNextGear).orElse(-1);
-        final int safeGear = gearMaskToMinScore.entrySet().stream().max((e1, e2) -> e1.getValue() - e2.getValue()).map(e -> e.getKey()).map(AmateurAI::getNextGear).orElse(-1);
-        //System.out.println("Risk gear: " + riskGear);
-        //System.out.println("Safe gear: " + safeGear);
-        //System.out.println("Best gear: " + avgGear);
+        final int searchedGear = new GearTreeSearch(budget.getIterations(), timeLimit, budget.getThreads()).search(evaluator, new SplittableRandom(Main.random.nextLong()));
+        final int selectedGear = searchedGear < 0 ? player.getGear() : searchedGear;
+        gear = selectedGear;
 
         if (location.hasGarage()) {
             final Tires chosenTires = getBestTires(tires, player.getLapsToGo(), true);
@@ -105,7 +101,7 @@ public class AmateurAI extends BaseAI {
             }
         }
 
-        if (true) return new gp.model.Gear().gear(riskGear).tires(tires);
+        if (true) return new gp.model.Gear().gear(selectedGear).tires(tires);
         // Find gear sequences for:
         // - max of mins (safe option)
         // - min of maxs (risky option)
@@ -115,9 +111,9 @@ public class AmateurAI extends BaseAI {
         final int maxGear = Math.min(location.isPit() ? 4 : 6, player.getGear() + 1);
         final int stopsDone = player.getStops();
         final int stopsToDo = location.getStopCount() - stopsDone;
-        final int movePermit = AIUtil.getMaxDistanceWithoutDamage(location, stopsDone, blockedNodes);
-        final int movePermitWithoutOthers = AIUtil.getMaxDistanceWithoutDamage(location, stopsDone, Collections.emptySet());
-        final int minDistanceToNextCurve = AIUtil.getMinDistanceToNextCurve(location, blockedNodes);
+        final int movePermit = analysis.getMaxDistanceWithoutDamage(location, stopsDone, blockedNodes);
+        final int movePermitWithoutOthers = analysis.getMaxDistanceWithoutDamage(location, stopsDone, NO_NODES);
+        final int minDistanceToNextCurve = analysis.getMinDistanceToNextCurve(location, blockedNodes);
         int minRoll = Gear.getMin(minGear); // Strict minimum
         int maxRoll = Gear.getMax(maxGear); // Strict maximum
         maxRoll = Math.min(maxRoll, movePermit + player.getHitpoints() - 1);
@@ -137,7 +133,7 @@ public class AmateurAI extends BaseAI {
             }
         } else if (minDistanceToNextCurve != -1 && maxRoll >= minDistanceToNextCurve && movePermit >= minDistanceToNextCurve) {
             minRoll = Math.max(minRoll, minDistanceToNextCurve);
-            if (AIUtil.getStopsRequiredInNextCurve(location) > 1) {
+            if (analysis.getStopsRequiredInNextCurve(location) > 1) {
                 idealRoll = minRoll;
             }
         }
@@ -176,11 +172,7 @@ public class AmateurAI extends BaseAI {
         return new gp.model.Gear().gear(gear).tires(tires);
     }
 
-    private Map<Integer, List<Integer>> gearMaskToScores = new HashMap<>();
-    private Map<Integer, Integer> gearMaskToMaxScore = new HashMap<>();
-    private Map<Integer, Integer> gearMaskToMinScore = new HashMap<>();
-
-    class GearEvaluator {
+    class GearEvaluator implements GearTreeSearch.State {
         private final int turns;
         private final int gear;
         private final int gearMask;
@@ -220,7 +212,7 @@ public class AmateurAI extends BaseAI {
             return s;
         }
 
-        private GearEvaluator(Node location, Set<Node> blockedNodes, Set<Node> pitNodes, int gear, int stopCount, int hitpoints, int lapsToGo) {
+        private GearEvaluator(Node location, NodeSet occupiedNodes, NodeSet pitNodes, int gear, int stopCount, int hitpoints, int lapsToGo) {
             turns = 0;
             this.gear = gear;
             gearMask = gear;
@@ -228,15 +220,17 @@ public class AmateurAI extends BaseAI {
             inPits = location.isPit();
             minGear = Math.max(1, gear - Math.min(4, hitpoints));
             stopsToDo = location.getStopCount() - stopCount;
-            final int minDistanceToPits = AIUtil.getMinDistanceToPits(location, blockedNodes);
+            final int minDistanceToPits = AIUtil.getMinDistanceToPits(location, occupiedNodes);
+            final NodeSet blockedNodes = new NodeSet(occupiedNodes);
             if (!inPits) blockedNodes.addAll(pitNodes);
-            movePermit = AIUtil.getMaxDistanceWithoutDamage(location, stopCount, blockedNodes);
-            movePermitWithoutOthers = AIUtil.getMaxDistanceWithoutDamage(location, stopCount, !inPits ? pitNodes : Collections.emptySet());
-            movePermitToNextCornerWithoutOthers = AIUtil.getMaxDistanceWithoutDamage(location, location.getStopCount(), !inPits ? pitNodes : Collections.emptySet());
-            minDistanceToNextCurve = AIUtil.getMinDistanceToNextCurve(location, blockedNodes);
-            minDistanceToNextCurveWithoutOthers = AIUtil.getMinDistanceToNextCurve(location, !inPits ? pitNodes : Collections.emptySet());
-            minMovesToTakeDamageWithoutOthers = AIUtil.getMinDistanceToTakeDamage(location, stopCount);
-            stopsInNextCurve = AIUtil.getStopsRequiredInNextCurve(location);
+            // Opponents affect the values only if they are in the way
+            movePermit = analysis.getMaxDistanceWithoutDamage(location, stopCount, blockedNodes);
+            movePermitWithoutOthers = analysis.getMaxDistanceWithoutDamage(location, stopCount);
+            movePermitToNextCornerWithoutOthers = analysis.getMaxDistanceWithoutDamage(location, location.getStopCount());
+            minDistanceToNextCurve = analysis.getMinDistanceToNextCurve(location, blockedNodes);
+            minDistanceToNextCurveWithoutOthers = analysis.getMinDistanceToNextCurve(location);
+            minMovesToTakeDamageWithoutOthers = analysis.getMinDistanceToTakeDamage(location, stopCount);
+            stopsInNextCurve = analysis.getStopsRequiredInNextCurve(location);
             enteredNextCurve = false;
             if (location.isPit()) {
                 final Pair<Integer, Integer> p = findGarage(location);
@@ -287,67 +281,48 @@ public class AmateurAI extends BaseAI {
             return minDistanceToNextCurveWithoutOthers > 0 || stopsToDo > 0;
         }
 
-        private void randomWalk() {
-            if (!canEvaluateNext() || gearMask > Math.pow(10, searchDepth)) {
-                final int score = getScore();
-                gearMaskToScores.computeIfAbsent(gearMask, gm -> new ArrayList<>()).add(score);
-                final Integer min = gearMaskToMinScore.get(gearMask);
-                final Integer max = gearMaskToMaxScore.get(gearMask);
-                if (min == null || score < min) gearMaskToMinScore.put(gearMask, score);
-                if (max == null || score > max) gearMaskToMaxScore.put(gearMask, score);
-                //System.out.println(toString());
-            } else {
-                int i = minGear;
-                if (minDistanceToNextCurve > 0 && stopsToDo <= 0) {
-                    while (Gear.getMax(i) < minDistanceToNextCurve) {
-                        if (i == maxGear) {
-                            break;
-                        }
-                        ++i;
-                    }
-                }
-                boolean canBreak = false;
-                while (i <= maxGear) {
-                    if (!AIUtil.validateGear(hitpoints, gear, i, inPits)) {
-                        ++i;
-                        continue;
-                    }
-                    if (canBreak) {
-                        if (movePermitToNextCornerWithoutOthers < Gear.getMin(i)) break; // maybe something else in final corner(s)?
-                        if (stopsToDo > 0 && !enteredNextCurve && movePermit < Gear.getMin(i)) break;
+        @Override
+        public boolean isTerminal() {
+            // Gears cannot be selected after running out of hitpoints
+            return !canEvaluateNext() || turns >= searchDepth || hitpoints <= 0;
+        }
+
+        @Override
+        public int getGears(int[] gears) {
+            int count = 0;
+            int i = minGear;
+            if (minDistanceToNextCurve > 0 && stopsToDo <= 0) {
+                while (Gear.getMax(i) < minDistanceToNextCurve) {
+                    if (i == maxGear) {
+                        break;
                     }
-                    final int[] distribution = Gear.getDistribution(i);
-                    final int roll = distribution[Main.random.nextInt(distribution.length)];
-                    final GearEvaluator next = new GearEvaluator(this, i, roll, inPits);
-                    next.randomWalk();
-                    canBreak = true;
                     ++i;
                 }
             }
-        }
-
-        private List<GearEvaluator> nextTurn() {
-            final List<GearEvaluator> candidates = new ArrayList<>();
-            if (canEvaluateNext()) {
-                int i = minGear;
-                if (minDistanceToNextCurve > 0 && stopsToDo <= 0 && Gear.getMax(maxGear) <= minDistanceToNextCurve) {
-                    i = maxGear;
-                }
-                while (i <= maxGear) {
-                    if (!AIUtil.validateGear(hitpoints, gear, i, inPits)) continue;
-                    final int[] distribution = Gear.getDistribution(i);
-                    for (int moveSteps : distribution) {
-                        final GearEvaluator next = new GearEvaluator(this, i, moveSteps, false);
-                        if (next.hitpoints <= 0) continue;
-                        candidates.add(next);
-                    }
+            boolean canBreak = false;
+            while (i <= maxGear) {
+                if (!AIUtil.validateGear(hitpoints, gear, i, inPits)) {
                     ++i;
+                    continue;
+                }
+                if (canBreak) {
+                    if (movePermitToNextCornerWithoutOthers < Gear.getMin(i)) break; // maybe something else in final corner(s)?
+                    if (stopsToDo > 0 && !enteredNextCurve && movePermit < Gear.getMin(i)) break;
                 }
+                gears[count++] = i;
+                canBreak = true;
+                ++i;
             }
-            return candidates;
+            return count;
         }
 
-        private int getScore() {
+        @Override
+        public GearEvaluator next(int gear, int roll) {
+            return new GearEvaluator(this, gear, roll, inPits);
+        }
+
+        @Override
+        public int getScore() {
             int score = canEvaluateNext() ? 0 : 100;
             score -= 10 * turns;
             score += 2 * hitpoints;
@@ -362,44 +337,6 @@ public class AmateurAI extends BaseAI {
             }
             return score;
         }
-
-        private Pair<Integer, Integer> getMinMaxScore(Deque<GearEvaluator> stack) {
-            final GearEvaluator evaluator = stack.getLast();
-            final List<GearEvaluator> nextEvaluators = evaluator.nextTurn();
-            if (nextEvaluators.isEmpty()) {
-                final int score = evaluator.getScore();
-                return Pair.of(score, score);
-            } else {
-                final int maxScore = nextEvaluators.stream().map(nextEvaluator -> {
-                    stack.addLast(nextEvaluator);
-                    final int score = getMinMaxScore(stack).getRight();
-                    stack.removeLast();
-                    return score;
-                }).mapToInt(Integer::intValue).max().orElse(Integer.MIN_VALUE);
-                final int minScore = nextEvaluators.stream().map(nextEvaluator -> {
-                    stack.addLast(nextEvaluator);
-                    final int score = getMinMaxScore(stack).getLeft();
-                    stack.removeLast();
-                    return score;
-                }).mapToInt(Integer::intValue).min().orElse(Integer.MAX_VALUE);
-                return Pair.of(minScore, maxScore);
-            }
-        }
-    }
-
-    // Return value 0 would be a bug.
-    public static int getMinDistanceToNextCurve(Node startNode) {
-        if (startNode.isCurve()) {
-            return AIUtil.findMinDistancesToNextAreaStart(startNode, false)
-                .entrySet()
-                .stream()
-                .map(e -> e.getKey().getMinDistanceToNextArea() + e.getValue())
-                .mapToInt(Integer::intValue)
-                .min()
-                .orElse(0);
-        } else {
-            return startNode.getMinDistanceToNextArea();
-        }
     }
 
     private int getMinDistance(List<Integer> bestIndices, List<ValidMove> moves, Map<Node, Integer> distances) {
@@ -460,7 +397,7 @@ public class AmateurAI extends BaseAI {
             if (thisCurve) {
                 return false;
             } else {
-                final int stopsInNextCurve = AIUtil.getStopsRequiredInNextCurve(location);
+                final int stopsInNextCurve = analysis.getStopsRequiredInNextCurve(location);
                 return stopsInNextCurve > 1;
             }
         }
@@ -472,8 +409,12 @@ public class AmateurAI extends BaseAI {
             throw new RuntimeException("No valid targets provided by server!");
         }
         final List<ValidMove> moves = allMoves.getMoves();
+        final int endgameMove = getEndgameMove(player, gear, moves);
+        if (endgameMove >= 0) {
+            return new SelectedIndex().index(endgameMove);
+        }
         final int[] distribution = Gear.getDistribution(gear);
-        final Map<Node, Integer> distances = getNodeDistances(location, distribution[distribution.length - 1]);
+        final Map<Node, Integer> distances = AIUtil.getNodeDistances(location, distribution[distribution.length - 1]);
 
         final List<Integer> bestIndices = new ArrayList<>();
         // Priority 1: Minimize damage
@@ -564,14 +505,14 @@ public class AmateurAI extends BaseAI {
                 final int maxMovePermit = bestIndices
                         .stream()
                         .map(i -> nodes.get(moves.get(i).getNodeId()))
-                        .map(n -> AIUtil.getMaxDistanceWithoutDamage(n, 0, Collections.emptySet()))
+                        .map(n -> analysis.getMaxDistanceWithoutDamage(n, 0, NO_NODES))
                         .mapToInt(Integer::intValue)
                         .max()
                         .orElse(0);
                 debug("Minimizing distance. (max distance without damage " + maxMovePermit + ")");
                 bestIndices.removeIf(i -> {
                     final Node node = nodes.get(moves.get(i).getNodeId());
-                    final int movePermit = AIUtil.getMaxDistanceWithoutDamage(node, 0, Collections.emptySet());
+                    final int movePermit = analysis.getMaxDistanceWithoutDamage(node, 0, NO_NODES);
                     if (useLimit && movePermit >= limit) return false;
                     return movePermit < maxMovePermit;
                 });
@@ -600,7 +541,7 @@ public class AmateurAI extends BaseAI {
         if (minimizeDistanceForNextCurve || !hasCurve(bestIndices, moves)) {
             final int minDistance = bestIndices
                     .stream()
-                    .map(index -> getMinDistanceToNextCurve(data.getNodes().get(moves.get(index).getNodeId())))
+                    .map(index -> analysis.getMinDistanceToNextCurve(data.getNodes().get(moves.get(index).getNodeId())))
                     .mapToInt(Integer::intValue)
                     .min()
                     .orElse(0);
@@ -608,7 +549,7 @@ public class AmateurAI extends BaseAI {
             while (it2.hasNext()) {
                 final int i = it2.next();
                 final Node node = data.getNodes().get(moves.get(i).getNodeId());
-                final int distance = getMinDistanceToNextCurve(node);
+                final int distance = analysis.getMinDistanceToNextCurve(node);
                 if (distance > minDistance) {
                     it2.remove();
                 }
@@ -623,27 +564,6 @@ public class AmateurAI extends BaseAI {
         return new SelectedIndex().index(bestIndices.get(Main.random.nextInt(bestIndices.size())));
     }
 
-    public static Map<Node, Integer> getNodeDistances(Node startNode, int maxDistance) {
-        final Deque<Node> work = new ArrayDeque<>();
-        final Map<Node, Integer> distances = new HashMap<>();
-        work.add(startNode);
-        distances.put(startNode, 0);
-        while (!work.isEmpty()) {
-            final Node node = work.remove();
-            final int distance = distances.get(node);
-            if (distance < maxDistance) {
-                node.forEachChild(child -> {
-                    final Integer childDistance = distances.get(child);
-                    if (childDistance == null) {
-                        work.add(child);
-                        distances.put(child, distance + 1);
-                    }
-                });
-            }
-        }
-        return distances;
-    }
-
     private void debug(String msg) {
         if (debug) {
             System.err.println(msg);
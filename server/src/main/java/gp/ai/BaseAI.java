@@ -4,24 +4,56 @@ import gp.Main;
 import gp.model.*;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
 public abstract class BaseAI implements AI {
+    // Shared empty set for searches without blocked nodes, never modified
+    static final NodeSet NO_NODES = new NodeSet();
+    // Pondering of all AIs runs in one background thread, so that it does not slow down the game
+    private static final ExecutorService ponderExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "AI pondering");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
 
     String playerId;
     int maxHitpoints;
     final TrackData data;
     final List<Node> nodes;
+    // Shared by all AIs on the track
+    final TrackAnalysis analysis;
     int gear;
     Tires tires;
     List<Weather> weatherForecast;
     private int weatherIndex;
     int totalLaps;
+    // Nodes occupied by players who are still racing, kept up to date from notifications for pondering.
+    // Only accessed in the thread that delivers the notifications.
+    private final NodeSet occupiedNodes = new NodeSet();
+    private final Map<String, Integer> playerLocations = new HashMap<>();
+    // State of the controlled player from notifications, for pondering before the game state is known
+    private int ownGear;
+    private int ownHitpoints;
+    private int ownStops;
+    private int ownLapsToGo;
+    SearchBudget budget = SearchBudget.AMATEUR;
+    private boolean pondering;
+    private Future<?> ponderTask;
+    // Nodes whose occupancy affects the current pondering, and nodes changed since it was started
+    private NodeSet ponderWindow;
+    private final NodeSet changedNodes = new NodeSet();
+    // Occupied nodes of the last gear selection, other players do not move before the move is selected
+    private NodeSet endgameOccupiedNodes;
 
     BaseAI(TrackData data) {
         this.data = data;
         nodes = data.getNodes();
+        analysis = data.getGraph().getAnalysis();
     }
 
     // This is called if AI takes over of a player after selecting a gear but before selecting where to move.
@@ -40,15 +72,202 @@ public abstract class BaseAI implements AI {
                     Main.log.log(Level.SEVERE, "AI assigneed to control multiple players");
                 }
                 playerId = createdPlayer.getPlayerId();
+                ownHitpoints = createdPlayer.getHitpoints();
+                ownLapsToGo = createdPlayer.getLapsRemaining();
             }
             maxHitpoints = createdPlayer.getHitpoints();
             totalLaps = createdPlayer.getLapsRemaining();
             tires = createdPlayer.getTires();
+            setLocation(createdPlayer.getPlayerId(), createdPlayer.getNodeId());
+        } else if (notification instanceof MovementNotification) {
+            final MovementNotification movement = (MovementNotification) notification;
+            if (playerLocations.containsKey(movement.getPlayerId())) {
+                setLocation(movement.getPlayerId(), movement.getNodeId());
+            }
+        } else if (notification instanceof HitpointNotification) {
+            final HitpointNotification hitpoints = (HitpointNotification) notification;
+            if (hitpoints.getPlayerId().equals(playerId)) {
+                ownHitpoints = hitpoints.getHitpoints();
+            }
+            if (hitpoints.getHitpoints() <= 0) {
+                removeLocation(hitpoints.getPlayerId());
+            }
+        } else if (notification instanceof LapChangeNotification) {
+            final LapChangeNotification lapChange = (LapChangeNotification) notification;
+            if (lapChange.getPlayerId().equals(playerId)) {
+                ownLapsToGo = lapChange.getLapsRemaining();
+            }
+            if (lapChange.getLapsRemaining() < 0) {
+                removeLocation(lapChange.getPlayerId());
+            }
+        } else if (notification instanceof RollNotification) {
+            final RollNotification roll = (RollNotification) notification;
+            if (roll.getPlayerId().equals(playerId)) {
+                ownGear = roll.getGear();
+            }
+        } else if (notification instanceof CurveStopNotification) {
+            final CurveStopNotification curveStop = (CurveStopNotification) notification;
+            if (curveStop.getPlayerId().equals(playerId)) {
+                ownStops = curveStop.getCurveStops();
+            }
         } else if (notification instanceof WeatherNotification) {
             weatherForecast = ((WeatherNotification) notification).getWeatherForecast();
         } else if (notification instanceof Standings) {
             ++weatherIndex;
         }
+        if (pondering && notification instanceof Notification) {
+            updatePondering(playerId != null && playerId.equals(((Notification) notification).getPlayerId()));
+        }
+    }
+
+    private void setLocation(String playerId, int nodeId) {
+        final Integer oldNodeId = playerLocations.put(playerId, nodeId);
+        if (oldNodeId != null) {
+            occupiedNodes.remove(nodes.get(oldNodeId));
+            changedNodes.add(nodes.get(oldNodeId));
+        }
+        occupiedNodes.add(nodes.get(nodeId));
+        changedNodes.add(nodes.get(nodeId));
+    }
+
+    private void removeLocation(String playerId) {
+        final Integer oldNodeId = playerLocations.remove(playerId);
+        if (oldNodeId != null) {
+            occupiedNodes.remove(nodes.get(oldNodeId));
+            changedNodes.add(nodes.get(oldNodeId));
+        }
+    }
+
+    /**
+     * Enables pondering: the AI prepares its next gear selection in the background while other players
+     * move, and starts again when the controlled player changes or a player moves within the nodes
+     * the preparation depends on. Disabled by default.
+     */
+    public void setPondering(boolean pondering) {
+        this.pondering = pondering;
+        if (!pondering && ponderTask != null) {
+            ponderTask.cancel(true);
+            ponderTask = null;
+        }
+    }
+
+    /**
+     * Sets the effort of the AI and enables pondering if the budget includes it. Pondering enabled
+     * with setPondering is kept.
+     */
+    public void setSearchBudget(SearchBudget budget) {
+        this.budget = budget;
+        if (budget.isPondering()) {
+            setPondering(true);
+        }
+    }
+
+    private void updatePondering(boolean ownChange) {
+        final boolean restart = ownChange || ponderWindow == null || ponderWindow.intersects(changedNodes);
+        changedNodes.clear();
+        if (!restart || playerId == null || !playerLocations.containsKey(playerId)) {
+            return;
+        }
+        if (ponderTask != null) {
+            ponderTask.cancel(true);
+        }
+        final PlayerState player = new PlayerState().playerId(playerId).gear(ownGear).hitpoints(ownHitpoints).stops(ownStops);
+        player.setNodeId(playerLocations.get(playerId));
+        player.setLapsToGo(ownLapsToGo);
+        ponderWindow = getPonderWindow(player);
+        if (ponderWindow == null) {
+            ponderTask = null;
+            return;
+        }
+        final NodeSet occupied = new NodeSet(occupiedNodes);
+        ponderTask = ponderExecutor.submit(() -> {
+            try {
+                ponder(player, occupied);
+            } catch (RuntimeException e) {
+                Main.log.log(Level.WARNING, "Pondering failed", e);
+            }
+        });
+    }
+
+    /**
+     * Returns the nodes whose occupancy affects pondering from the given state of the controlled
+     * player, or null if the AI does not ponder from that state.
+     */
+    NodeSet getPonderWindow(PlayerState player) {
+        return null;
+    }
+
+    /**
+     * Prepares the next gear selection of the controlled player in the pondering thread. Stops early
+     * if the thread is interrupted, as the preparation is then no longer needed.
+     */
+    void ponder(PlayerState player, NodeSet occupiedNodes) {
+    }
+
+    /**
+     * Returns the nodes occupied by players who are still racing, including the controlled player.
+     * Derived from the game state only, as this runs in the AI thread while notifications update the
+     * locations tracked for pondering in the game thread. The returned set is not modified afterwards.
+     */
+    NodeSet getOccupiedNodes(GameState gameState) {
+        final NodeSet occupied = new NodeSet();
+        for (PlayerState player : gameState.getPlayers()) {
+            if (isRacing(player)) {
+                occupied.add(nodes.get(player.getNodeId()));
+            }
+        }
+        return occupied;
+    }
+
+    private static boolean isRacing(PlayerState player) {
+        return player.getHitpoints() > 0 && player.getLapsToGo() >= 0;
+    }
+
+    // Returns the endgame table if it models the rules of the given state, i.e. on the final lap in
+    // dry weather without tire rules, or null
+    private EndgameTable getEndgameTable(PlayerState player) {
+        if (player.getLapsToGo() != 0 || player.getGear() == 0 || tires != null || getWeather(0) == Weather.RAIN) {
+            return null;
+        }
+        final Node location = nodes.get(player.getNodeId());
+        final EndgameTable table = location.getGraph().getEndgameTable();
+        return table != null && table.covers(location, player.getGear(), player.getHitpoints()) ? table : null;
+    }
+
+    /**
+     * Returns the best gear from the endgame table, or 0 if the table does not cover the state or
+     * other players are close enough to get in the way.
+     */
+    int getEndgameGear(PlayerState player, NodeSet occupiedNodes) {
+        endgameOccupiedNodes = occupiedNodes;
+        final EndgameTable table = getEndgameTable(player);
+        final Node location = nodes.get(player.getNodeId());
+        if (table == null || isNearOthers(location, occupiedNodes)) {
+            return 0;
+        }
+        return table.getGear(location, player.getGear(), player.getHitpoints(), player.getStops());
+    }
+
+    /**
+     * Returns the index of the best move with the selected gear from the endgame table, or -1 if the
+     * table does not cover the state and all targets or other players are close enough to get in the
+     * way. The state is the one before selecting the gear.
+     */
+    int getEndgameMove(PlayerState player, int gear, List<ValidMove> moves) {
+        final EndgameTable table = getEndgameTable(player);
+        final Node location = nodes.get(player.getNodeId());
+        if (table == null || endgameOccupiedNodes == null || isNearOthers(location, endgameOccupiedNodes)) {
+            return -1;
+        }
+        final int hitpoints = player.getHitpoints() - Math.max(0, player.getGear() - gear - 1);
+        return table.selectMove(location, gear, hitpoints, player.getStops(), moves, nodes);
+    }
+
+    // The table assumes the player races alone, which holds while no other player is within reach
+    private static boolean isNearOthers(Node location, NodeSet occupiedNodes) {
+        final NodeSet others = new NodeSet(occupiedNodes);
+        others.remove(location);
+        return others.intersects(location.getGraph().getSearchArea(location.getIndex()));
     }
 
     Weather getWeather(int offset) {
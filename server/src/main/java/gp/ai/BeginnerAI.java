@@ -35,6 +35,11 @@ public class BeginnerAI extends BaseAI {
                 tires = chosenTires;
             }
         }
+        final int endgameGear = getEndgameGear(player, getOccupiedNodes(gameState));
+        if (endgameGear > 0) {
+            gear = endgameGear;
+            return new gp.model.Gear().gear(gear).tires(tires);
+        }
         final boolean inPits = location.getType() == NodeType.PIT;
         final int maxGear = inPits ? 4 : 6;
         final int stopsDone = player.getStops();
@@ -149,7 +154,9 @@ public class BeginnerAI extends BaseAI {
         return new gp.model.Gear().gear(gear).tires(tires);
     }
 
-    public static int getStopsRequiredInNextCurve(Node startNode) {
+    // BeginnerAI keeps its own definitions of the track distances, which differ from TrackAnalysis
+    // near pit lanes and forks
+    private static int getStopsRequiredInNextCurve(Node startNode) {
         final Node nonCurve;
         if (startNode.isCurve()) {
             nonCurve = recurseUntil(startNode, true);
@@ -180,7 +187,7 @@ public class BeginnerAI extends BaseAI {
             .orElse(0) + 1;
     }
 
-    public static int getMaxDistanceToNextStraight(Node startNode) {
+    private static int getMaxDistanceToNextStraight(Node startNode) {
         if (startNode.isCurve()) {
             return findMaxDistanceToStraight(startNode) - 1;
         } else {
@@ -194,7 +201,7 @@ public class BeginnerAI extends BaseAI {
         }
     }
 
-    public static int getMaxDistanceToStraightAfterNextCurve(Node startNode) {
+    private static int getMaxDistanceToStraightAfterNextCurve(Node startNode) {
         if (startNode.isCurve()) {
             return findDistancesToNextAreaStart(startNode)
                 .entrySet()
@@ -236,7 +243,7 @@ public class BeginnerAI extends BaseAI {
     }
 
     // Return value 0 would be a bug.
-    public static int getMinDistanceToNextCurve(Node startNode) {
+    private static int getMinDistanceToNextCurve(Node startNode) {
         if (startNode.isCurve()) {
             return findDistancesToNextAreaStart(startNode)
                 .entrySet()
@@ -293,8 +300,12 @@ public class BeginnerAI extends BaseAI {
             throw new RuntimeException("No valid targets provided by server!");
         }
         final List<ValidMove> moves = allMoves.getMoves();
+        final int endgameMove = getEndgameMove(player, gear, moves);
+        if (endgameMove >= 0) {
+            return new SelectedIndex().index(endgameMove);
+        }
         final int[] distribution = Gear.getDistribution(gear);
-        final Map<Node, Integer> distances = getNodeDistances(location, distribution[distribution.length - 1]);
+        final Map<Node, Integer> distances = AIUtil.getNodeDistances(location, distribution[distribution.length - 1]);
 
         // Priority 1: Minimize damage
         int leastDamage = player.getHitpoints();
@@ -385,7 +396,7 @@ public class BeginnerAI extends BaseAI {
 
         // Can access curve and need to stop more than once after this move -> enter curve but minimize distance
         if (hasCurve(bestIndices, moves)) {
-            final Node curve = recurseUntil(data.getNodes().get(player.getNodeId()), false);
+            final Node curve = recurseUntil(location, false);
             final int stopCount = curve.getStopCount();
             if (stopCount > player.getStops() + 1) {
                 removeNonCurves(bestIndices, moves);
@@ -447,27 +458,6 @@ public class BeginnerAI extends BaseAI {
         return new SelectedIndex().index(bestIndices.get(Main.random.nextInt(bestIndices.size())));
     }
 
-    public static Map<Node, Integer> getNodeDistances(Node startNode, int maxDistance) {
-        final Deque<Node> work = new ArrayDeque<>();
-        final Map<Node, Integer> distances = new HashMap<>();
-        work.add(startNode);
-        distances.put(startNode, 0);
-        while (!work.isEmpty()) {
-            final Node node = work.remove();
-            final int distance = distances.get(node);
-            if (distance < maxDistance) {
-                node.forEachChild(child -> {
-                    final Integer childDistance = distances.get(child);
-                    if (childDistance == null) {
-                        work.add(child);
-                        distances.put(child, distance + 1);
-                    }
-                });
-            }
-        }
-        return distances;
-    }
-
     private void debug(String msg) {
         if (debug) {
             System.err.println(msg);
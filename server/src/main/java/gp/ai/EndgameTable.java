@@ -0,0 +1,247 @@
+package gp.ai;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import gp.Main;
+import gp.model.ValidMove;
+
+/**
+ * Exact solution of the final lap from the last curves before the finish line, for a player racing
+ * alone. The value of a state is the expected number of turns to finish, and among equal expectations
+ * finishing with more hitpoints is better. Covers all hitpoints up to MAX_HITPOINTS, as garages cannot
+ * be entered on the final lap. The table is stored uncompressed in the cache file of the track and
+ * memory-mapped. Thread-safe.
+ */
+public final class EndgameTable {
+    public static final int CURVES = 3;
+    private static final int MAX_HITPOINTS = 30;
+    private static final int MAGIC = 0x46444554;
+    private static final int VERSION = 1;
+    // Small enough not to outweigh any difference in expected turns
+    private static final float HITPOINT_BONUS = 0.0001f;
+    private static final int STATES_PER_NODE = GearPolicy.GEARS * MAX_HITPOINTS * GearPolicy.STOP_COUNTS;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+    // Tables by track checksum, loaded once per process and shared by all games on the same track
+    private static final Map<Long, CompletableFuture<ByteBuffer>> buffers = new ConcurrentHashMap<>();
+
+    private final TrackGraph graph;
+    // Same layout as the file: header, slot of each node or -1, values of the slots, gears of the slots
+    private final ByteBuffer buffer;
+    private final int valueOffset;
+    private final int gearOffset;
+
+    private EndgameTable(TrackGraph graph, ByteBuffer buffer) {
+        this.graph = graph;
+        this.buffer = buffer;
+        int slots = 0;
+        for (int node = 0; node < graph.size(); node++) {
+            if (getSlot(node) >= 0) {
+                slots++;
+            }
+        }
+        valueOffset = HEADER_SIZE + 4 * graph.size();
+        gearOffset = valueOffset + 4 * slots * STATES_PER_NODE;
+    }
+
+    private int getSlot(int node) {
+        return buffer.getInt(HEADER_SIZE + 4 * node);
+    }
+
+    private static int getState(int gear, int hitpoints, int stops) {
+        return ((gear - 1) * MAX_HITPOINTS + hitpoints - 1) * GearPolicy.STOP_COUNTS + Math.min(stops, GearPolicy.STOP_COUNTS - 1);
+    }
+
+    /**
+     * Returns the nodes from the start of the given number of last curves to the finish line.
+     */
+    static NodeSet getCoveredNodes(TrackGraph graph, int curves) {
+        // Area indices are not necessarily in track order, so curves are ordered by distance
+        final Map<Integer, Double> curveStarts = new HashMap<>();
+        for (int node = 0; node < graph.size(); node++) {
+            if (graph.isCurve(node) && !graph.isPit(node)) {
+                curveStarts.merge(graph.getAreaIndex(node), graph.getDistance(node), Math::min);
+            }
+        }
+        final List<Double> starts = new ArrayList<>(curveStarts.values());
+        starts.sort(Collections.reverseOrder());
+        final double threshold = starts.isEmpty() ? 0 : starts.get(Math.min(curves, starts.size()) - 1);
+        final NodeSet covered = new NodeSet();
+        for (int node = 0; node < graph.size(); node++) {
+            if (!graph.isPit(node) && !graph.hasFinish(node) && graph.getDistance(node) >= threshold) {
+                covered.add(node);
+            }
+        }
+        return covered;
+    }
+
+    /**
+     * Solves the table for the given track, in parallel over the nodes.
+     */
+    public static EndgameTable compute(TrackGraph graph) {
+        final NodeSet covered = getCoveredNodes(graph, CURVES);
+        final GearPolicy.Solver solver = new GearPolicy.Solver(graph, MAX_HITPOINTS, 1, covered, HITPOINT_BONUS, 0.000001f);
+        solver.solve();
+        final int[] slots = new int[graph.size()];
+        int slotCount = 0;
+        for (int node = 0; node < graph.size(); node++) {
+            slots[node] = covered.contains(node) ? slotCount++ : -1;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 4 * slots.length + 5 * slotCount * STATES_PER_NODE);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(graph.getChecksum()).putInt(graph.size());
+        for (int slot : slots) {
+            buffer.putInt(slot);
+        }
+        // Solver states are ordered by node, so the states of each node are contiguous
+        for (int node = 0; node < graph.size(); node++) {
+            if (slots[node] >= 0) {
+                final int first = GearPolicy.getState(graph.size(), MAX_HITPOINTS, 0, node, 1, 1, 0);
+                for (int i = first; i < first + STATES_PER_NODE; i++) {
+                    buffer.putFloat(solver.values[i]);
+                }
+            }
+        }
+        for (int node = 0; node < graph.size(); node++) {
+            if (slots[node] >= 0) {
+                final int first = GearPolicy.getState(graph.size(), MAX_HITPOINTS, 0, node, 1, 1, 0);
+                buffer.put(solver.gears, first, STATES_PER_NODE);
+            }
+        }
+        buffer.flip();
+        return new EndgameTable(graph, buffer);
+    }
+
+    /**
+     * Returns the table in the given buffer, or null if it was computed for a different track or with
+     * an older version of the format.
+     */
+    static EndgameTable wrap(ByteBuffer buffer, TrackGraph graph) {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getLong(8) != graph.getChecksum() || buffer.getInt(16) != graph.size()) {
+            return null;
+        }
+        return new EndgameTable(graph, buffer);
+    }
+
+    /**
+     * Returns true if the table covers the given state on the final lap.
+     */
+    public boolean covers(Node node, int gear, int hitpoints) {
+        return getSlot(node.getIndex()) >= 0 && gear >= 1 && gear <= GearPolicy.GEARS && hitpoints >= 1 && hitpoints <= MAX_HITPOINTS;
+    }
+
+    /**
+     * Returns the best gear in the given state on the final lap, see covers.
+     */
+    public int getGear(Node node, int gear, int hitpoints, int stops) {
+        return buffer.get(gearOffset + getSlot(node.getIndex()) * STATES_PER_NODE + getState(gear, hitpoints, stops));
+    }
+
+    /**
+     * Returns the value of moving between the given nodes on the final lap with the given gear and
+     * hitpoints left after the move, smaller is better. Returns NaN if the table does not cover the
+     * target.
+     */
+    public double getMoveValue(Node from, Node to, int gear, int hitpoints, int stops) {
+        final int source = from.getIndex();
+        final int target = to.getIndex();
+        if (hitpoints <= 0) {
+            return GearPolicy.DNF_TURNS;
+        }
+        if (GearPolicy.completesLap(graph, source, target)) {
+            return -HITPOINT_BONUS * hitpoints;
+        }
+        if (!covers(to, gear, hitpoints)) {
+            return Double.NaN;
+        }
+        final int newStops = GearPolicy.getStopsAfterMove(graph, source, target, stops);
+        return buffer.getFloat(valueOffset + 4 * (getSlot(target) * STATES_PER_NODE + getState(gear, hitpoints, newStops)));
+    }
+
+    /**
+     * Returns the index of the best move on the final lap, or -1 if the table does not cover all moves.
+     * Hitpoints are the ones left after changing gears.
+     */
+    public int selectMove(Node location, int gear, int hitpoints, int stops, List<ValidMove> moves, List<Node> nodes) {
+        int bestIndex = -1;
+        double bestValue = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < moves.size(); i++) {
+            final ValidMove move = moves.get(i);
+            final double value = getMoveValue(location, nodes.get(move.getNodeId()), gear, hitpoints - move.getOvershoot() - move.getBraking(), stops);
+            if (Double.isNaN(value)) {
+                return -1;
+            }
+            if (value < bestValue) {
+                bestValue = value;
+                bestIndex = i;
+            }
+        }
+        return bestIndex;
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static void write(ByteBuffer buffer, OutputStream os) throws IOException {
+        final WritableByteChannel channel = Channels.newChannel(os);
+        final ByteBuffer source = buffer.duplicate();
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+    // Maps the table file if it is up to date, otherwise computes the table and writes the file first.
+    // The table is kept in memory if the file cannot be written.
+    private static ByteBuffer load(TrackData data) {
+        final TrackGraph graph = data.getGraph();
+        final File file = TrackCache.getFile(data, "end");
+        if (file.exists()) {
+            try {
+                final EndgameTable table = wrap(map(file), graph);
+                if (table != null) {
+                    return table.buffer;
+                }
+            } catch (IOException e) {
+                Main.log.log(Level.WARNING, "Failed to map endgame table for " + data.getTrackId(), e);
+            }
+        }
+        final long startTime = System.currentTimeMillis();
+        final EndgameTable table = compute(graph);
+        Main.log.info("Computed endgame table for " + data.getTrackId() + " in " + (System.currentTimeMillis() - startTime) + " ms");
+        try {
+            TrackCache.write(file, os -> write(table.buffer, os));
+            final EndgameTable mapped = wrap(map(file), graph);
+            if (mapped != null) {
+                return mapped.buffer;
+            }
+        } catch (IOException e) {
+            Main.log.log(Level.WARNING, "Failed to write endgame table for " + data.getTrackId(), e);
+        }
+        return table.buffer;
+    }
+
+    /**
+     * Attaches the table to the track in the background at low priority. The table is mapped from the
+     * cache file of the track, which is written first if it is missing or out of date. Each track is loaded once per process, also when several games
+     * on it are started at the same time.
+     */
+    public static CompletableFuture<Void> prepare(TrackData data) {
+        final TrackGraph graph = data.getGraph();
+        if (graph.getEndgameTable() != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return buffers.computeIfAbsent(graph.getChecksum(), checksum -> CompletableFuture.supplyAsync(() -> load(data), TrackCache.EXECUTOR))
+                .thenAccept(buffer -> graph.setEndgameTable(new EndgameTable(graph, buffer)));
+    }
+}
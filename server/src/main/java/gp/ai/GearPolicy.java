@@ -0,0 +1,421 @@
+package gp.ai;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import gp.Main;
+import gp.NodeUtil;
+
+/**
+ * Optimal gear selection for a player racing alone, solved as a Markov decision process with value
+ * iteration. A state is the node, gear, hitpoints and curve stops of the player with some laps to go,
+ * and its value is the expected number of turns to finish the race. Rolls follow the distributions
+ * of Gear and after each roll the player moves to the target with the best value. Opponents, weather
+ * and tires are not modelled. The policy is computed offline with main. Policies for the default
+ * of 18 hitpoints are shipped with the built-in tracks, others are stored in the cache file of the
+ * track.
+ */
+public final class GearPolicy {
+    private static final int MAGIC = 0x46445050;
+    private static final int VERSION = 1;
+    static final int GEARS = 6;
+    static final int STOP_COUNTS = 4;
+    private static final int MAX_ROLL = 30;
+    // Expected turns of a player who drops out, larger than any race takes
+    static final float DNF_TURNS = 100;
+    // Values are stored in hundredths of a turn
+    private static final float SCALE = 100;
+    private static final int MAX_ITERATIONS = 500;
+    private static final int DAMAGE_BITS = 8;
+
+    private final long checksum;
+    private final int nodeCount;
+    private final int maxHitpoints;
+    private final int laps;
+    // Expected turns and best next gear of each state, see getState
+    private final char[] values;
+    private final byte[] gears;
+
+    private GearPolicy(long checksum, int nodeCount, int maxHitpoints, int laps, char[] values, byte[] gears) {
+        this.checksum = checksum;
+        this.nodeCount = nodeCount;
+        this.maxHitpoints = maxHitpoints;
+        this.laps = laps;
+        this.values = values;
+        this.gears = gears;
+    }
+
+    static int getState(int nodeCount, int maxHitpoints, int lapsToGo, int node, int gear, int hitpoints, int stops) {
+        return (((lapsToGo * nodeCount + node) * GEARS + gear - 1) * maxHitpoints + hitpoints - 1) * STOP_COUNTS + stops;
+    }
+
+    /**
+     * Solves the policy for races of at most the given number of laps, in parallel over the nodes.
+     */
+    public static GearPolicy compute(TrackGraph graph, int maxHitpoints, int laps) {
+        final Solver solver = new Solver(graph, maxHitpoints, laps, null, 0, 0.001f);
+        solver.solve();
+        final char[] values = new char[solver.values.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (char) Math.min(Character.MAX_VALUE, Math.round(solver.values[i] * SCALE));
+        }
+        return new GearPolicy(graph.getChecksum(), graph.size(), maxHitpoints, laps, values, solver.gears);
+    }
+
+    /**
+     * Returns the curve stops done after moving between the given nodes with the given stops done before.
+     */
+    static int getStopsAfterMove(TrackGraph graph, int from, int to, int stops) {
+        if (!graph.isCurve(to)) {
+            return 0;
+        }
+        return graph.isCurve(from) && graph.getAreaIndex(from) == graph.getAreaIndex(to) ? Math.min(stops + 1, STOP_COUNTS - 1) : 1;
+    }
+
+    /**
+     * Returns true if the move between the given nodes completes a lap. Laps are counted like in the
+     * game: when the route passes the finish line or the pits.
+     */
+    static boolean completesLap(TrackGraph graph, int from, int to) {
+        return !graph.hasFinish(from) && (graph.hasFinish(to) || graph.getDistance(to) < graph.getDistance(from));
+    }
+
+    /**
+     * Value iteration over the states of the given nodes, or all nodes if null. Values of the states
+     * with other nodes are not computed and moves to them are not considered. A player who finishes
+     * gains the given bonus per hitpoint left, which may be used to prefer finishing without damage.
+     * Iteration stops when no value changes more than epsilon.
+     */
+    static final class Solver {
+        private final TrackGraph graph;
+        private final int nodeCount;
+        private final int maxHitpoints;
+        private final int laps;
+        private final NodeSet nodesToSolve;
+        private final float finishBonus;
+        private final float epsilon;
+        // Expected turns and best next gear of each state, see getState
+        float[] values;
+        final byte[] gears;
+        // Values written by the sweep in progress
+        private float[] next;
+        // Targets of each distance packed with their damage, by final lap, node, stops and pit entry
+        private final int[][][][] targets;
+        // Nodes closest to the finish line first
+        private final int[] order;
+
+        Solver(TrackGraph graph, int maxHitpoints, int laps, NodeSet nodesToSolve, float finishBonus, float epsilon) {
+            this.graph = graph;
+            nodeCount = graph.size();
+            this.maxHitpoints = maxHitpoints;
+            this.laps = laps;
+            this.nodesToSolve = nodesToSolve;
+            this.finishBonus = finishBonus;
+            this.epsilon = epsilon;
+            values = new float[laps * nodeCount * GEARS * maxHitpoints * STOP_COUNTS];
+            next = new float[values.length];
+            gears = new byte[values.length];
+            targets = new int[2][nodeCount * STOP_COUNTS * 2][][];
+            IntStream.range(0, nodeCount).filter(this::isSolved).parallel().forEach(node -> {
+                for (int lapsToGo = 0; lapsToGo <= Math.min(1, laps - 1); lapsToGo++) {
+                    final NodeUtil.SearchContext context = new NodeUtil.SearchContext(new NodeSet(), lapsToGo);
+                    for (int stops = 0; stops < STOP_COUNTS; stops++) {
+                        // Gear 1 allows pit entry and gear 5 does not, except on the final lap
+                        for (int pit = 0; pit < 2; pit++) {
+                            final List<Map<Node, Integer>> damages = NodeUtil.findTargetDamages(context, graph.getNode(node), pit == 1 ? 1 : 5, 0, MAX_ROLL, Integer.MAX_VALUE, stops, false);
+                            final int[][] distances = new int[MAX_ROLL + 1][];
+                            for (int distance = 0; distance <= MAX_ROLL; distance++) {
+                                distances[distance] = damages.get(distance).entrySet().stream()
+                                        .mapToInt(e -> (graph.indexOf(e.getKey()) << DAMAGE_BITS) | Math.min(e.getValue(), (1 << DAMAGE_BITS) - 1))
+                                        .sorted()
+                                        .toArray();
+                            }
+                            targets[lapsToGo == 0 ? 0 : 1][(node * STOP_COUNTS + stops) * 2 + pit] = distances;
+                        }
+                    }
+                }
+            });
+            order = IntStream.range(0, nodeCount).filter(this::isSolved).boxed()
+                    .sorted(Comparator.comparingDouble(node -> -graph.getDistance(node)))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        }
+
+        private boolean isSolved(int node) {
+            return nodesToSolve == null || nodesToSolve.contains(node);
+        }
+
+        void solve() {
+            for (int lapsToGo = 0; lapsToGo < laps; lapsToGo++) {
+                final int lap = lapsToGo;
+                for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+                    // Each sweep reads only the values of the previous sweep, so that the result does not
+                    // depend on the order in which the threads update the nodes
+                    final double change = Arrays.stream(order).parallel().mapToDouble(node -> update(lap, node, false)).max().orElse(0);
+                    final float[] swept = next;
+                    next = values;
+                    values = swept;
+                    if (change < epsilon) {
+                        break;
+                    }
+                }
+                // Later laps read the final values of this lap from both buffers
+                System.arraycopy(values, 0, next, 0, values.length);
+            }
+            // The policy is extracted from the final values only
+            for (int lapsToGo = 0; lapsToGo < laps; lapsToGo++) {
+                for (int node : order) {
+                    update(lapsToGo, node, true);
+                }
+            }
+            next = null;
+        }
+
+        private float getValue(int lapsToGo, int node, int gear, int hitpoints, int stops) {
+            return values[getState(nodeCount, maxHitpoints, lapsToGo, node, gear, hitpoints, stops)];
+        }
+
+        // Updates all states of the node into the next sweep and returns the largest change of value, or
+        // only selects the best gears of the states if extracting the policy
+        private float update(int lapsToGo, int node, boolean extract) {
+            final boolean inPits = graph.isPit(node);
+            final int maxGear = inPits ? 4 : GEARS;
+            // Expected turns after selecting each gear, by the hitpoints left after downshifting
+            final float[][] expected = new float[maxGear + 1][maxHitpoints + 1];
+            // Best value of the targets of each distance, by the hitpoints left before the move
+            final float[][] best = new float[maxHitpoints + 1][MAX_ROLL + 1];
+            float change = 0;
+            for (int stops = 0; stops < STOP_COUNTS; stops++) {
+                for (int gear = 1; gear <= maxGear; gear++) {
+                    final int pit = lapsToGo > 0 && gear < 5 ? 1 : 0;
+                    final int[][] distances = targets[lapsToGo == 0 ? 0 : 1][(node * STOP_COUNTS + stops) * 2 + pit];
+                    final int[] distribution = Gear.getDistribution(gear);
+                    final int maxRoll = distribution[distribution.length - 1];
+                    for (int hitpoints = 1; hitpoints <= maxHitpoints; hitpoints++) {
+                        for (int distance = 0; distance <= maxRoll; distance++) {
+                            best[hitpoints][distance] = getBestTarget(lapsToGo, node, gear, hitpoints, stops, distances[distance]);
+                        }
+                    }
+                    for (int hitpoints = 1; hitpoints <= maxHitpoints; hitpoints++) {
+                        float sum = 0;
+                        for (int roll : distribution) {
+                            // Braking costs a hitpoint per step
+                            float value = Float.POSITIVE_INFINITY;
+                            for (int braking = 0; braking <= roll && braking < hitpoints; braking++) {
+                                value = Math.min(value, best[hitpoints - braking][roll - braking]);
+                            }
+                            sum += value == Float.POSITIVE_INFINITY ? DNF_TURNS : value;
+                        }
+                        expected[gear][hitpoints] = sum / distribution.length;
+                    }
+                }
+                for (int gear = 1; gear <= GEARS; gear++) {
+                    for (int hitpoints = 1; hitpoints <= maxHitpoints; hitpoints++) {
+                        float value = DNF_TURNS;
+                        int bestGear = 0;
+                        for (int newGear = 1; newGear <= maxGear; newGear++) {
+                            if (!AIUtil.validateGear(hitpoints, gear, newGear, inPits)) {
+                                continue;
+                            }
+                            final float newValue = expected[newGear][hitpoints - Math.max(0, gear - newGear - 1)];
+                            if (newValue < value) {
+                                value = newValue;
+                                bestGear = newGear;
+                            }
+                        }
+                        final int state = getState(nodeCount, maxHitpoints, lapsToGo, node, gear, hitpoints, stops);
+                        if (extract) {
+                            gears[state] = (byte) bestGear;
+                        } else {
+                            change = Math.max(change, Math.abs(1 + value - values[state]));
+                            next[state] = 1 + value;
+                        }
+                    }
+                }
+            }
+            return change;
+        }
+
+        // Returns the value of the best target, or infinity if every target takes all hitpoints
+        private float getBestTarget(int lapsToGo, int node, int gear, int hitpoints, int stops, int[] targets) {
+            float best = Float.POSITIVE_INFINITY;
+            for (int packed : targets) {
+                final int target = packed >>> DAMAGE_BITS;
+                final int damage = packed & ((1 << DAMAGE_BITS) - 1);
+                if (damage >= hitpoints) {
+                    continue;
+                }
+                final int newHitpoints = graph.hasGarage(target) ? maxHitpoints : hitpoints - damage;
+                final int newStops = getStopsAfterMove(graph, node, target, stops);
+                final float value;
+                if (!completesLap(graph, node, target)) {
+                    if (!isSolved(target)) {
+                        continue;
+                    }
+                    value = getValue(lapsToGo, target, gear, newHitpoints, newStops);
+                } else {
+                    value = lapsToGo == 0 ? -finishBonus * newHitpoints : getValue(lapsToGo - 1, target, gear, newHitpoints, newStops);
+                }
+                best = Math.min(best, value);
+            }
+            return best;
+        }
+    }
+
+    public int getMaxHitpoints() {
+        return maxHitpoints;
+    }
+
+    /**
+     * Returns the expected number of turns for the player to finish the race from the given state when
+     * racing alone. Races longer than the policy are extrapolated from the last two laps.
+     */
+    public double getExpectedTurns(Node node, int gear, int hitpoints, int stops, int lapsToGo) {
+        if (lapsToGo < 0) {
+            return 0;
+        }
+        if (hitpoints <= 0) {
+            return DNF_TURNS;
+        }
+        final int lap = Math.min(lapsToGo, laps - 1);
+        final double value = getStoredValue(lap, node, gear, hitpoints, stops);
+        if (lapsToGo == lap || lap == 0) {
+            return value;
+        }
+        return value + (lapsToGo - lap) * (value - getStoredValue(lap - 1, node, gear, hitpoints, stops));
+    }
+
+    /**
+     * Returns the gear with the least expected number of turns to finish from the given state.
+     */
+    public int getGear(Node node, int gear, int hitpoints, int stops, int lapsToGo) {
+        return gears[getIndex(Math.max(0, Math.min(lapsToGo, laps - 1)), node, gear, hitpoints, stops)];
+    }
+
+    private double getStoredValue(int lapsToGo, Node node, int gear, int hitpoints, int stops) {
+        return values[getIndex(lapsToGo, node, gear, hitpoints, stops)] / SCALE;
+    }
+
+    private int getIndex(int lapsToGo, Node node, int gear, int hitpoints, int stops) {
+        return getState(nodeCount, maxHitpoints, lapsToGo, node.getIndex(), Math.max(1, gear),
+                Math.max(1, Math.min(hitpoints, maxHitpoints)), Math.min(stops, STOP_COUNTS - 1));
+    }
+
+    public void write(OutputStream os) throws IOException {
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(os)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(checksum);
+        out.writeInt(nodeCount);
+        out.writeInt(maxHitpoints);
+        out.writeInt(laps);
+        for (char value : values) {
+            out.writeChar(value);
+        }
+        out.write(gears);
+        out.flush();
+        out.close();
+    }
+
+    /**
+     * Reads a policy written by write. Returns null if the policy was computed for a different track
+     * or with an older version of the format.
+     */
+    public static GearPolicy read(InputStream is, TrackGraph graph) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(is)));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            return null;
+        }
+        final long checksum = in.readLong();
+        final int nodeCount = in.readInt();
+        if (checksum != graph.getChecksum() || nodeCount != graph.size()) {
+            return null;
+        }
+        final int maxHitpoints = in.readInt();
+        final int laps = in.readInt();
+        final char[] values = new char[laps * nodeCount * GEARS * maxHitpoints * STOP_COUNTS];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readChar();
+        }
+        final byte[] gears = new byte[values.length];
+        in.readFully(gears);
+        return new GearPolicy(checksum, nodeCount, maxHitpoints, laps, values, gears);
+    }
+
+    /**
+     * Attaches the policy of the track to it in the background, if there is one. The cache file of
+     * the track is read first, so that policies computed with main replace the ones shipped with the
+     * built-in tracks. The policy is not computed here, as solving it takes too long during a game.
+     */
+    public static CompletableFuture<Void> prepare(TrackData data) {
+        final TrackGraph graph = data.getGraph();
+        return CompletableFuture.runAsync(() -> {
+            if (graph.getGearPolicy() != null) {
+                return;
+            }
+            final File file = TrackCache.getFile(data, "pol");
+            if (file.exists()) {
+                try (InputStream is = new FileInputStream(file)) {
+                    graph.setGearPolicy(read(is, graph));
+                } catch (IOException e) {
+                    Main.log.log(Level.WARNING, "Failed to read gear policy for " + data.getTrackId(), e);
+                }
+            }
+            if (graph.getGearPolicy() != null || data.isExternal()) {
+                return;
+            }
+            try (InputStream is = Main.class.getResourceAsStream("/" + file.getName())) {
+                if (is != null) {
+                    graph.setGearPolicy(read(is, graph));
+                }
+            } catch (IOException e) {
+                Main.log.log(Level.WARNING, "Failed to read gear policy for " + data.getTrackId(), e);
+            }
+        }, TrackCache.EXECUTOR);
+    }
+
+    /**
+     * Computes the policies of the given tracks and writes them to the cache files of the tracks, or
+     * to the given directory. Built-in tracks are given by resource name, e.g. fuji.dat, and the
+     * shipped policies of them are computed with the default options.
+     * Usage: GearPolicy [-hitpoints N] [-laps N] [-output directory] track.dat...
+     */
+    public static void main(String[] args) throws IOException {
+        int maxHitpoints = 18;
+        int laps = 3;
+        File output = null;
+        final List<String> tracks = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-hitpoints") && i + 1 < args.length) {
+                maxHitpoints = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-laps") && i + 1 < args.length) {
+                laps = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-output") && i + 1 < args.length) {
+                output = new File(args[++i]);
+            } else {
+                tracks.add(args[i]);
+            }
+        }
+        for (String track : tracks) {
+            final TrackData data = TrackData.createTrackData(track, new File(track).exists());
+            if (data == null) {
+                System.err.println("Failed to load track " + track);
+                continue;
+            }
+            final long startTime = System.currentTimeMillis();
+            final GearPolicy policy = compute(data.getGraph(), maxHitpoints, laps);
+            final File file = TrackCache.getFile(data, "pol");
+            TrackCache.write(output != null ? new File(output, file.getName()) : file, policy::write);
+            System.out.println("Computed gear policy for " + track + " in " + (System.currentTimeMillis() - startTime) + " ms");
+        }
+    }
+}
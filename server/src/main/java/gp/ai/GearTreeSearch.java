@@ -0,0 +1,219 @@
+package gp.ai;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Monte Carlo tree search over gear sequences using UCT. A node of the tree is a sequence of gears
+ * from the root and rolls are sampled again on each iteration, so the tree does not branch on rolls.
+ * Each thread builds its own tree with its own random generator and the statistics of the first gear
+ * are merged in the end. With an iteration limit only, the result depends only on the random seed.
+ */
+final class GearTreeSearch {
+    private static final double EXPLORATION = 0.7;
+    private static final int MAX_GEARS = 6;
+
+    /**
+     * Immutable state of a simulated player after a sequence of gears and rolls.
+     */
+    interface State {
+        boolean isTerminal();
+
+        /**
+         * Stores the gears that can be selected next in ascending order and returns their count.
+         */
+        int getGears(int[] gears);
+
+        State next(int gear, int roll);
+
+        int getScore();
+    }
+
+    private final int iterations;
+    private final long timeLimitMillis;
+    private final int threads;
+
+    /**
+     * Time limit of zero means no limit, and the iterations are split evenly between the threads.
+     */
+    GearTreeSearch(int iterations, long timeLimitMillis, int threads) {
+        this.iterations = iterations;
+        this.timeLimitMillis = timeLimitMillis;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Returns the best first gear from the given state, or -1 if there are no gears to select.
+     */
+    int search(State root, SplittableRandom random) {
+        final long deadline = timeLimitMillis > 0 ? System.nanoTime() + timeLimitMillis * 1000000 : Long.MAX_VALUE;
+        final List<Tree> trees = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            trees.add(new Tree(root, random.split()));
+        }
+        final int iterationsPerTree = (iterations + threads - 1) / threads;
+        // The calling thread builds the first tree
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>(threads - 1);
+        for (Tree tree : trees.subList(1, threads)) {
+            tasks.add(SearchBudget.POOL.submit(() -> tree.run(iterationsPerTree, deadline)));
+        }
+        trees.get(0).run(iterationsPerTree, deadline);
+        tasks.forEach(ForkJoinTask::join);
+        // Most visited first gear is selected, ties are resolved by the average score
+        final long[] visits = new long[MAX_GEARS + 1];
+        final long[] scores = new long[MAX_GEARS + 1];
+        for (Tree tree : trees) {
+            tree.addRootStatistics(visits, scores);
+        }
+        int bestGear = -1;
+        for (int gear = 1; gear <= MAX_GEARS; gear++) {
+            if (visits[gear] == 0) {
+                continue;
+            }
+            if (bestGear < 0 || visits[gear] > visits[bestGear]
+                    || (visits[gear] == visits[bestGear] && scores[gear] * visits[bestGear] > scores[bestGear] * visits[gear])) {
+                bestGear = gear;
+            }
+        }
+        return bestGear;
+    }
+
+    // Nodes are stored in parallel arrays, children of a node are a linked list of siblings.
+    private static final class Tree {
+        private final State root;
+        private final SplittableRandom random;
+        private int size;
+        private byte[] gears = new byte[256];
+        private int[] firstChildren = new int[256];
+        private int[] siblings = new int[256];
+        private int[] visits = new int[256];
+        private long[] scores = new long[256];
+        private int minScore = Integer.MAX_VALUE;
+        private int maxScore = Integer.MIN_VALUE;
+        private final int[] choices = new int[MAX_GEARS];
+        private int[] path = new int[16];
+
+        private Tree(State root, SplittableRandom random) {
+            this.root = root;
+            this.random = random;
+            addNode(0);
+        }
+
+        private int addNode(int gear) {
+            if (size == gears.length) {
+                final int capacity = size * 2;
+                gears = Arrays.copyOf(gears, capacity);
+                firstChildren = Arrays.copyOf(firstChildren, capacity);
+                siblings = Arrays.copyOf(siblings, capacity);
+                visits = Arrays.copyOf(visits, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+            }
+            gears[size] = (byte) gear;
+            firstChildren[size] = -1;
+            siblings[size] = -1;
+            return size++;
+        }
+
+        private int findChild(int node, int gear) {
+            for (int child = firstChildren[node]; child >= 0; child = siblings[child]) {
+                if (gears[child] == gear) {
+                    return child;
+                }
+            }
+            return -1;
+        }
+
+        private void run(int iterations, long deadline) {
+            for (int i = 0; i < iterations; i++) {
+                if ((i & 63) == 0 && System.nanoTime() > deadline) {
+                    break;
+                }
+                iterate();
+            }
+        }
+
+        private void iterate() {
+            State state = root;
+            int node = 0;
+            int depth = 0;
+            path[depth++] = node;
+            // Selection and expansion
+            while (!state.isTerminal()) {
+                final int count = state.getGears(choices);
+                if (count == 0) {
+                    break;
+                }
+                int selected = -1;
+                int selectedGear = 0;
+                double bestValue = Double.NEGATIVE_INFINITY;
+                for (int i = 0; i < count; i++) {
+                    final int child = findChild(node, choices[i]);
+                    if (child < 0) {
+                        // Gears that have not been tried yet are tried first
+                        selected = -1;
+                        selectedGear = choices[i];
+                        break;
+                    }
+                    final double value = getValue(node, child);
+                    if (value > bestValue) {
+                        bestValue = value;
+                        selected = child;
+                        selectedGear = choices[i];
+                    }
+                }
+                final boolean expand = selected < 0;
+                if (expand) {
+                    selected = addNode(selectedGear);
+                    siblings[selected] = firstChildren[node];
+                    firstChildren[node] = selected;
+                }
+                state = state.next(selectedGear, roll(selectedGear));
+                node = selected;
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                }
+                path[depth++] = node;
+                if (expand) {
+                    break;
+                }
+            }
+            // Random playout
+            while (!state.isTerminal()) {
+                final int count = state.getGears(choices);
+                if (count == 0) {
+                    break;
+                }
+                final int gear = choices[random.nextInt(count)];
+                state = state.next(gear, roll(gear));
+            }
+            final int score = state.getScore();
+            minScore = Math.min(minScore, score);
+            maxScore = Math.max(maxScore, score);
+            for (int i = 0; i < depth; i++) {
+                visits[path[i]]++;
+                scores[path[i]] += score;
+            }
+        }
+
+        private double getValue(int parent, int child) {
+            final double average = (double) scores[child] / visits[child];
+            final int range = Math.max(1, maxScore - minScore);
+            return average + EXPLORATION * range * Math.sqrt(Math.log(visits[parent]) / visits[child]);
+        }
+
+        private int roll(int gear) {
+            final int[] distribution = Gear.getDistribution(gear);
+            return distribution[random.nextInt(distribution.length)];
+        }
+
+        private void addRootStatistics(long[] gearVisits, long[] gearScores) {
+            for (int child = firstChildren[0]; child >= 0; child = siblings[child]) {
+                gearVisits[gears[child]] += visits[child];
+                gearScores[gears[child]] += scores[child];
+            }
+        }
+    }
+}
@@ -11,9 +11,7 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 
 public class ManualAI extends BaseAI {
 
@@ -44,7 +42,6 @@ public class ManualAI extends BaseAI {
 
     @Override
     public Gear selectGear(GameState gameState) {
-        final Set<Node> blockedNodes = new HashSet<>();
         int stopCount = 0;
         for (PlayerState playerState : gameState.getPlayers()) {
             if (playerId.equals(playerState.getPlayerId())) {
@@ -55,8 +52,6 @@ public class ManualAI extends BaseAI {
                 stopCount = playerState.getStops();
                 tires = playerState.getTires();
                 //System.err.println("EVAL: " + evaluate(playerState));
-            } else if (playerState.getHitpoints() > 0 && playerState.getLapsToGo() >= 0) {
-                blockedNodes.add(data.getNodes().get(playerState.getNodeId()));
             }
         }
         if (hitpoints == 0) {
@@ -102,6 +97,8 @@ public class ManualAI extends BaseAI {
             });
             game.actionMenu.add(item);
         }
+        final NodeSet blockedNodes = new NodeSet(getOccupiedNodes(gameState));
+        blockedNodes.remove(location);
         if (!location.isPit()) data.getNodes().stream().filter(Node::isPit).forEach(blockedNodes::add);
         final MenuItem item1 = new MenuItem("Min distance to next curve" + getAidText(AIUtil.getMinDistanceToNextCurve(location, blockedNodes)));
         final MenuItem item2 = new MenuItem("Max distance without taking damage" + getAidText(AIUtil.getMaxDistanceWithoutDamage(location, stopCount, blockedNodes)));
@@ -22,6 +22,11 @@ public final class Node implements Serializable, Comparable<Node> {
     private transient int stepsToFinishLine = -1;
     private transient int areaIndex;
     private transient double gridAngle = Double.NaN; // Client does not need this
+    private transient TrackGraph graph;
+    private transient int index;
+    // Derived properties, compared every round when sorting players
+    private transient boolean curve;
+    private transient int minDistanceToNextArea = -1;
     private Point point;
 
     public Node(int id, NodeType type) {
@@ -32,6 +37,7 @@ public final class Node implements Serializable, Comparable<Node> {
         } else {
             this.type = type;
         }
+        updateCurve();
     }
 
     public void setGarage(boolean garage) {
@@ -62,6 +68,35 @@ public final class Node implements Serializable, Comparable<Node> {
         areaIndex = index;
     }
 
+    void attach(TrackGraph graph, int index) {
+        this.graph = graph;
+        this.index = index;
+    }
+
+    void setMinDistanceToNextArea(int distance) {
+        minDistanceToNextArea = distance;
+    }
+
+    /**
+     * Updates the curve flag, which blocked nodes take from their children. Called when the children
+     * change and for all nodes when the track is built.
+     */
+    void updateCurve() {
+        curve = isCurve(this);
+    }
+
+    private static boolean isCurve(Node node) {
+        switch (node.type) {
+            case CURVE_1:
+            case CURVE_2:
+            case CURVE_3:
+                return true;
+            case BLOCKED:
+                return !node.nextNodes.isEmpty() && isCurve(node.nextNodes.iterator().next());
+        }
+        return false;
+    }
+
     public int getId() {
         return id;
     }
@@ -98,6 +133,17 @@ public final class Node implements Serializable, Comparable<Node> {
         return areaIndex;
     }
 
+    /**
+     * Returns the compiled graph of the track, or null if the node is not part of a loaded track.
+     */
+    public TrackGraph getGraph() {
+        return graph;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
     /**
      * Used only in map editor and when loading nodes.
      */
@@ -105,11 +151,14 @@ public final class Node implements Serializable, Comparable<Node> {
         if (node != this) {
             nextNodes.add(node);
             node.nextNodes.remove(this); // prevent cycles of length 2
+            updateCurve();
+            node.updateCurve();
         }
     }
 
     public void removeChild(Node node) {
         nextNodes.remove(node);
+        updateCurve();
     }
 
     public void forEachChild(Consumer<Node> consumer) {
@@ -134,9 +183,12 @@ public final class Node implements Serializable, Comparable<Node> {
 
     /**
      * Returns minimum distance to the next area for which isCurve() returns a different
-     * value, does not take obstacles into account.
+     * value, does not take obstacles into account. Precomputed for the nodes of a loaded track.
      */
     public int getMinDistanceToNextArea() {
+        if (minDistanceToNextArea >= 0) {
+            return minDistanceToNextArea;
+        }
         final boolean startNodeIsCurve = isCurve();
         final boolean inPits = isPit();
         final List<Node> work = new ArrayList<>();
@@ -162,7 +214,7 @@ public final class Node implements Serializable, Comparable<Node> {
     }
 
     public boolean isCurve() {
-        return type == NodeType.CURVE_1 || type == NodeType.CURVE_2 || type == NodeType.CURVE_3 || (type == NodeType.BLOCKED && !nextNodes.isEmpty() && nextNodes.iterator().next().isCurve());
+        return curve;
     }
 
     public int getStopCount() {
@@ -210,5 +262,7 @@ public final class Node implements Serializable, Comparable<Node> {
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         in.defaultReadObject();
         nextNodes = new HashSet<>();
+        minDistanceToNextArea = -1;
+        updateCurve();
     }
 }
@@ -0,0 +1,134 @@
+package gp.ai;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Set of nodes of a single track backed by a bitset indexed by node index, which is the same as the
+ * node id for loaded tracks. Used for occupied and blocked nodes in searches.
+ */
+public final class NodeSet {
+    private long[] words;
+
+    public NodeSet() {
+        words = new long[0];
+    }
+
+    public NodeSet(NodeSet other) {
+        words = other.words.clone();
+    }
+
+    public NodeSet(Collection<Node> nodes) {
+        this();
+        nodes.forEach(this::add);
+    }
+
+    /**
+     * Creates a set from the words returned by toLongArray.
+     */
+    public static NodeSet valueOf(long[] words) {
+        final NodeSet set = new NodeSet();
+        set.words = words.clone();
+        return set;
+    }
+
+    public long[] toLongArray() {
+        return words.clone();
+    }
+
+    public boolean contains(int index) {
+        final int word = index >>> 6;
+        return word < words.length && (words[word] & (1L << index)) != 0;
+    }
+
+    public boolean contains(Node node) {
+        return contains(node.getIndex());
+    }
+
+    public void add(int index) {
+        final int word = index >>> 6;
+        if (word >= words.length) {
+            words = Arrays.copyOf(words, word + 1);
+        }
+        words[word] |= 1L << index;
+    }
+
+    public void add(Node node) {
+        add(node.getIndex());
+    }
+
+    public void addAll(NodeSet other) {
+        if (other.words.length > words.length) {
+            words = Arrays.copyOf(words, other.words.length);
+        }
+        for (int i = 0; i < other.words.length; i++) {
+            words[i] |= other.words[i];
+        }
+    }
+
+    public boolean intersects(NodeSet other) {
+        final int length = Math.min(words.length, other.words.length);
+        for (int i = 0; i < length; i++) {
+            if ((words[i] & other.words[i]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void retainAll(NodeSet other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= i < other.words.length ? other.words[i] : 0L;
+        }
+    }
+
+    public void remove(int index) {
+        final int word = index >>> 6;
+        if (word < words.length) {
+            words[word] &= ~(1L << index);
+        }
+    }
+
+    public void remove(Node node) {
+        remove(node.getIndex());
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0L);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (other instanceof NodeSet) {
+            final long[] otherWords = ((NodeSet) other).words;
+            final int length = Math.max(words.length, otherWords.length);
+            for (int i = 0; i < length; i++) {
+                if ((i < words.length ? words[i] : 0L) != (i < otherWords.length ? otherWords[i] : 0L)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        // Trailing empty words do not affect the hash, same as in equals
+        long hash = 0;
+        for (int i = words.length - 1; i >= 0; i--) {
+            hash = hash * 31 + words[i];
+        }
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    public boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -8,6 +8,9 @@ import gp.model.*;
 
 import javax.annotation.Nonnull;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class ProAI extends BaseAI {
@@ -21,11 +24,14 @@ public class ProAI extends BaseAI {
     private int cumulativeValue = 0;
     //private final Map<Integer, Integer> areaToStops = new HashMap<>();
     private final Map<Integer, Integer> areaToValue = new HashMap<>();
-    private final Set<Node> pitLane;
+    // Scores of target positions, reused by the rolls and gears of a decision and by the move selection
+    private final TranspositionTable transpositions = new TranspositionTable(1 << 14);
+    // Solo policy of the track if it has been computed, fixed for a decision like the table above
+    private GearPolicy policy;
+    private Decision decision;
 
     public ProAI(TrackData data) {
         super(data);
-        pitLane = nodes.stream().filter(Node::isPit).collect(Collectors.toSet());
         //lapLengthInSteps = nodes.stream().filter(n -> !n.isPit()).map(Node::getStepsToFinishLine).mapToInt(Integer::intValue).max().orElse(0);
         // Compute cumulative stop counts for each area for better node evaluation
         //int cumulativeStops = 0;
@@ -40,15 +46,15 @@ public class ProAI extends BaseAI {
         for (int area = 0; area < areaToNode.size(); ++area) {
             final Node node = areaToNode.get(area);
             if (node.isCurve()) {
-                cumulativeValue += AIUtil.getMinDistanceToNextCurve(node, pitLane);
+                cumulativeValue += analysis.getMinDistanceToNextCurve(node);
             }
             areaToValue.put(node.getAreaIndex(), cumulativeValue);
         }
-        if (!pitLane.isEmpty()) {
-            final int pitLaneAreaIndex = pitLane.iterator().next().getAreaIndex();
+        nodes.stream().filter(Node::isPit).findAny().ifPresent(pitNode -> {
+            final int pitLaneAreaIndex = pitNode.getAreaIndex();
             //areaToStops.put(pitLaneAreaIndex, cumulativeStops);
             areaToValue.put(pitLaneAreaIndex, cumulativeValue);
-        }
+        });
         //System.err.println(areaToValue);
 /*
         nodes.forEach(n -> {
@@ -57,8 +63,8 @@ public class ProAI extends BaseAI {
             //int maxMaxScore = Integer.MIN_VALUE;
             //int lowHPScore = Integer
             final int stops = n.getStopCount();// > 0 ? 1 : 0;
-            final int distance = AIUtil.getMinDistanceToNextCurve(n, n.isPit() ? Collections.emptySet() : pitLane);
-            final int movePermit = AIUtil.getMaxDistanceWithoutDamage(n, stops, n.isPit() ? Collections.emptySet() : pitLane);
+            final int distance = analysis.getMinDistanceToNextCurve(n);
+            final int movePermit = analysis.getMaxDistanceWithoutDamage(n, stops);
             for (int gear = 2; gear <= 2; ++gear) {
                 final int score = evaluate(n, 18, gear, 0, stops, distance, movePermit);
                 //final int maxScore = evaluate(n, 18, gear, 0, n.getStopCount());
@@ -73,28 +79,94 @@ public class ProAI extends BaseAI {
         });*/
     }
 
+    // State of the player for one decision. Gears are evaluated in worker threads, which must not read
+    // the fields that change when the next decision starts.
+    private static final class Decision {
+        final Node location;
+        final int gear;
+        final int hitpoints;
+        final int stops;
+        final int lapsToGo;
+        final GearPolicy policy;
+        final long deadline;
+
+        Decision(Node location, PlayerState player, GearPolicy policy, long deadline) {
+            this(location, player.getGear(), player.getHitpoints(), player.getStops(), player.getLapsToGo(), policy, deadline);
+        }
+
+        private Decision(Node location, int gear, int hitpoints, int stops, int lapsToGo, GearPolicy policy, long deadline) {
+            this.location = location;
+            this.gear = gear;
+            this.hitpoints = hitpoints;
+            this.stops = stops;
+            this.lapsToGo = lapsToGo;
+            this.policy = policy;
+            this.deadline = deadline;
+        }
+
+        Decision withoutDeadline() {
+            return new Decision(location, gear, hitpoints, stops, lapsToGo, policy, Long.MAX_VALUE);
+        }
+
+        boolean isExpired() {
+            return deadline != Long.MAX_VALUE && System.currentTimeMillis() >= deadline;
+        }
+    }
+
     int evaluate(Node endNode, int damage, int gear) {
-        final int stops = (endNode.isCurve() && endNode.getAreaIndex() != location.getAreaIndex()) ? 1 : player.getStops() + 1;
-        int lapsToGo = player.getLapsToGo();
+        return evaluate(decision, endNode, damage, gear);
+    }
+
+    private int evaluate(Decision decision, Node endNode, int damage, int gear) {
+        final Node location = decision.location;
+        final int stops = (endNode.isCurve() && endNode.getAreaIndex() != location.getAreaIndex()) ? 1 : decision.stops + 1;
+        int lapsToGo = decision.lapsToGo;
         if (!endNode.isPit()) {
             if (location.isPit() || location.getAreaIndex() > endNode.getAreaIndex()) --lapsToGo;
         }
         final boolean enterPits = endNode.hasGarage() || (endNode.isPit() && !location.isPit());
-        final int hp = enterPits ? maxHitpoints : player.getHitpoints() - damage - Math.max(0, player.getGear() - gear - 1);
-        final int distance = AIUtil.getMinDistanceToNextCurve(endNode, endNode.isPit() ? Collections.emptySet() : pitLane);
-        final int movePermit = AIUtil.getMaxDistanceWithoutDamage(endNode, stops, endNode.isPit() ? Collections.emptySet() : pitLane);
-        return evaluate(location, endNode, hp, gear, lapsToGo, stops, distance, movePermit);
+        final int hp = enterPits ? maxHitpoints : decision.hitpoints - damage - Math.max(0, decision.gear - gear - 1);
+        if (debug2) {
+            // Traced scores are always evaluated again
+            return evaluate(decision, endNode, hp, gear, lapsToGo, stops, new ScoreExplanation());
+        }
+        // Other inputs of the evaluation are fixed within a decision
+        final long key = TranspositionTable.key(endNode, gear, hp, stops, lapsToGo, 0);
+        int score = transpositions.getScore(key, Integer.MIN_VALUE);
+        if (score == Integer.MIN_VALUE) {
+            score = evaluate(decision, endNode, hp, gear, lapsToGo, stops, null);
+            transpositions.put(key, score, 0);
+        }
+        return score;
+    }
+
+    private int evaluate(Decision decision, Node endNode, int hp, int gear, int lapsToGo, int stops, ScoreExplanation explanation) {
+        final GearPolicy policy = decision.policy;
+        if (policy != null && hp > 0 && lapsToGo >= 0) {
+            // Expected turns to finish when racing alone replace the hand-tuned terms
+            final int score = -(int) Math.round(100 * policy.getExpectedTurns(endNode, gear, hp, endNode.isCurve() ? stops : 0, lapsToGo));
+            if (explanation != null) {
+                explanation.add("Score from gear policy", score);
+                debug(explanation.toString());
+            }
+            return score;
+        }
+        final int distance = analysis.getMinDistanceToNextCurve(endNode);
+        final int movePermit = analysis.getMaxDistanceWithoutDamage(endNode, stops);
+        return evaluate(decision, endNode, hp, gear, lapsToGo, stops, distance, movePermit, explanation);
     }
     //                                 0           1  2   3   4   5   6   7   8   9   10  11  12  13  14  15  16  17  18  19  20  21  22  23  24  25  26  27  28   29   30
     private static int[] hpToScore = { Scores.MIN, 5, 10, 15, 20, 25, 30, 35, 40, 44, 48, 51, 54, 57, 60, 63, 66, 69, 72, 75, 78, 81, 84, 87, 90, 93, 96, 99, 102, 105, 108 };
     // Linear                          0           4  8   12  16  20  24  28  32  36  40  44  48  52  56  60  64  68  72
 
-    private int evaluate(Node startNode, Node endNode, int hp, int gear, int lapsToGo, int stops, int distance, int movePermit) {
+    // Explanation is null unless the parts of the score are traced
+    private int evaluate(Decision decision, Node endNode, int hp, int gear, int lapsToGo, int stops, int distance, int movePermit, ScoreExplanation explanation) {
+        final Node startNode = decision.location;
         final boolean finalStraight = !endNode.isCurve() && lapsToGo == 0 && areaToValue.get(endNode.getAreaIndex()) == cumulativeValue && hp > 1;
         //if (finalStraight) debug("Final straight!!! HP does not matter");
         // TODO: Reduce value of HP based on remaining distance
         int score = hpToScore[finalStraight ? Math.max(maxHitpoints, hp) : hp];
-        String description = "Score from HP: " + score + "\n";
+        if (explanation != null) explanation.add("Score from HP", score);
 
         if (lapsToGo < 0) {
             return Scores.MAX + score; // Prefer finishing without wasting hitpoints
@@ -112,7 +184,7 @@ public class ProAI extends BaseAI {
             final int value = areaToValue.get(endNode.getAreaIndex());
             final int stopValue = (value - previousValue) / (requiredStopCount - 1);
             score -= stopsToDo * stopValue;
-            description += "Penalty from missing stops in the curve: " + (stopsToDo * stopValue) + "\n";
+            if (explanation != null) explanation.add("Penalty from missing stops in the curve", stopsToDo * stopValue);
 
             // Penatly from too low gear...
             int maxSteps = getGearAvg(Math.min(6, gear + 1));
@@ -121,39 +193,39 @@ public class ProAI extends BaseAI {
             }
             if (movePermit > maxSteps) {
                 score -= movePermit - maxSteps;
-                description += "Penalty from low gear: " + (movePermit - maxSteps) + "\n";
+                if (explanation != null) explanation.add("Penalty from low gear", movePermit - maxSteps);
             }
         } else {
             score -= distance;
-            description += "Penalty from distance: " + distance + "\n";
+            if (explanation != null) explanation.add("Penalty from distance", distance);
         }
         final int value = 2 * (areaToValue.get(endNode.getAreaIndex()) - lapsToGo * cumulativeValue);
         score += value;
-        description += "Score from cumulative area value: " + value + "\n";
+        if (explanation != null) explanation.add("Score from cumulative area value", value);
 
         if (endNode.isPit()) {
-            final int penalty = getPenaltyForLowGear(endNode, gear, distance, movePermit) * player.getHitpoints() / maxHitpoints;
+            final int penalty = getPenaltyForLowGear(endNode, gear, distance, movePermit) * decision.hitpoints / maxHitpoints;
             score -= penalty;
-            description += "Penalty from low gear (pits): " + penalty + "\n";
+            if (explanation != null) explanation.add("Penalty from low gear (pits)", penalty);
             if (weatherForecast != null) {
                 final Tires bestTires = getBestTires(tires, lapsToGo, false);
                 if (bestTires != tires) {
                     score += 10;
-                    description += "Bonus for switching to proper tires (pits): " + 10 + "\n";
+                    if (explanation != null) explanation.add("Bonus for switching to proper tires (pits)", 10);
                 }
             }
             //final int penaltyForHP = Math.max(0, player.getHitpoints() - 9);
-            //description += "Penalty from HP (pits): " + penaltyForHP + "\n";
+            //if (explanation != null) explanation.add("Penalty from HP (pits)", penaltyForHP);
             //score -= penaltyForHP;
-            if (debug2) debug(description);
+            if (explanation != null) debug(explanation.toString());
             return score;
         }
 
         if (stopsToDo <= 0) {
             final int penalty = getPenaltyForLowGear(endNode, gear, distance, movePermit);
             score -= penalty;
-            description += "Penalty from low gear: " + penalty + "\n";
-            stopsToDo = AIUtil.getStopsRequiredInNextCurve(endNode);
+            if (explanation != null) explanation.add("Penalty from low gear", penalty);
+            stopsToDo = analysis.getStopsRequiredInNextCurve(endNode);
         }
 
         if (finalStraight) {
@@ -177,7 +249,7 @@ public class ProAI extends BaseAI {
         if (minStepsWithoutDamage > movePermit) {
             // Too large gear --> take into account in evaluation
             score -= 2 * (minStepsWithoutDamage - movePermit);
-            description += "Penalty from too high gear: " + (2 * (minStepsWithoutDamage - movePermit)) + "\n";
+            if (explanation != null) explanation.add("Penalty from too high gear", 2 * (minStepsWithoutDamage - movePermit));
         }
         if (gear < 4) {
             int avgStepsWithoutDamage = Gear.getAvg(gear);
@@ -187,14 +259,14 @@ public class ProAI extends BaseAI {
             if (avgStepsWithoutDamage > movePermit) {
                 // Too large gear --> take into account in evaluation
                 score -= avgStepsWithoutDamage - movePermit;
-                description += "Penalty from having to downshift: " + (avgStepsWithoutDamage - movePermit) + "\n";
+                if (explanation != null) explanation.add("Penalty from having to downshift", avgStepsWithoutDamage - movePermit);
             }
         }
 
         if (endNode.getType() == NodeType.STRAIGHT && endNode.childCount(null) == 1 && endNode.childStream().allMatch(Node::isCurve)) {
             --score;
         }
-        if (debug2) debug(description);
+        if (explanation != null) debug(explanation.toString());
         return score;
     }
 
@@ -208,7 +280,7 @@ public class ProAI extends BaseAI {
         if (penalty == 0 && !node.isCurve()) {
             // Approaching a corner, check that the gear is not too low for that corner.
             int maxSteps = getGearMax(Math.min(inPits ? 4 : 6, gear + 1));
-            int stops = AIUtil.getStopsRequiredInNextCurve(node);
+            int stops = analysis.getStopsRequiredInNextCurve(node);
             for (int i = 2; i <= stops; ++i) {
                 maxSteps = getGearMax(Math.min(inPits ? 4 : 6, gear + i));
             }
@@ -216,7 +288,7 @@ public class ProAI extends BaseAI {
         }
         return penalty;
         /*
-        final int distanceToNextCurve = AIUtil.getMinDistanceToNextCurve(node, inPits ? Collections.emptySet() : pitLane);
+        final int distanceToNextCurve = analysis.getMinDistanceToNextCurve(node);
         final int minRoll = Gear.getMin(inPits ? 4 : 6);
         final int maxRoll = Gear.getMax(inPits ? 4 : 6);
         final int maxTurnsNeeded = (distanceToNextCurve + minRoll - 1) / minRoll;
@@ -253,6 +325,20 @@ public class ProAI extends BaseAI {
         */
     }
 
+    // Parts of a score for debugging the evaluation
+    private static class ScoreExplanation {
+        private final StringBuilder parts = new StringBuilder();
+
+        void add(String part, int value) {
+            parts.append(part).append(": ").append(value).append('\n');
+        }
+
+        @Override
+        public String toString() {
+            return parts.toString();
+        }
+    }
+
     private static class Scores implements Comparable<Scores> {
         private final static int MIN = -1000000;
         private final static int MAX = 1000000;
@@ -297,10 +383,18 @@ public class ProAI extends BaseAI {
             throw new RuntimeException("Unknown location for player: " + playerId);
         }
         tires = player.getTires();
+        // Cached scores are only valid for the start state they were evaluated from
+        transpositions.newGeneration();
+        decision = new Decision(location, player, policy, Long.MAX_VALUE);
     }
 
     @Override
     public gp.model.Gear selectGear(GameState gameState) {
+        return selectGear(gameState, Long.MAX_VALUE);
+    }
+
+    @Override
+    public gp.model.Gear selectGear(GameState gameState, long deadline) {
         updatePlayerInfo(gameState);
         if (player.getGear() == 0) {
             final Tires chosenTires = getBestTires(tires, player.getLapsToGo(), true);
@@ -323,62 +417,62 @@ public class ProAI extends BaseAI {
                 debug("Changed tires " + tires.getType().name());
             }
         }
-        final Set<Node> blockedNodes = playerMap
-                .values()
-                .stream()
-                .filter(p -> p.getHitpoints() > 0 && p.getLapsToGo() >= 0)
-                .map(p -> nodes.get(p.getNodeId()))
-                .collect(Collectors.toSet());
+        // Scores depend on the player state and tires, which are fixed from here until the move is selected
+        transpositions.newGeneration();
+        policy = data.getGraph().getGearPolicy();
+        if (policy != null && policy.getMaxHitpoints() != maxHitpoints) {
+            policy = null;
+        }
+        final long timeLimit = budget.getTimeLimitMillis();
+        final Decision decision = new Decision(location, player, policy, timeLimit > 0 ? Math.min(deadline, System.currentTimeMillis() + timeLimit) : deadline);
+        this.decision = decision;
+        // Not modified during the decision, so the gears can be evaluated in parallel
+        final NodeSet blockedNodes = getOccupiedNodes(gameState);
+        final int endgameGear = getEndgameGear(player, blockedNodes);
+        if (endgameGear > 0) {
+            gear = endgameGear;
+            debug("Chose gear " + gear + " from endgame table");
+            return new gp.model.Gear().gear(gear).tires(tires);
+        }
         final int minGear = Math.max(1, player.getGear() - Math.min(4, player.getHitpoints()));
         final int maxGear = Math.min(location.isPit() ? 4 : 6, player.getGear() + 1);
         final Weather weather = getWeather(0);
         final int overshootMultiplier = tires == null ? 1 : tires.getOvershootDamage(weather);
-        final Map<Integer, List<Integer>> gearToScore = new HashMap<>();
-        for (int gear = minGear; gear <= maxGear; ++gear) {
-            final int finalGear = gear;
-            final int[] distribution = Gear.getDistribution(gear);
-            for (int roll : distribution) {
-                final Map<Node, DamageAndPath> res = NodeUtil.findTargetNodes(location, gear, roll, player.getHitpoints(), player.getStops(), player.getLapsToGo(), blockedNodes, player.getLapsToGo() == totalLaps);
-                final Set<Node> slideNodes = new HashSet<>();
-                if (weather == Weather.RAIN) {
-                    final Iterator<Map.Entry<Node, DamageAndPath>> it = res.entrySet().iterator();
-                    while (it.hasNext()) {
-                        final Map.Entry<Node, DamageAndPath> e = it.next();
-                        if (e.getKey().isCurve() || e.getValue().getDamage() > 0) {
-                            slideNodes.add(e.getKey());
-                            it.remove();
-                        }
-                    }
+        final boolean start = player.getLapsToGo() == totalLaps;
+        final boolean softTires = tires != null && tires.canUse(weather);
+        final int slide = tires != null && tires.getType() == Tires.Type.WET ? 1 : 3;
+        final List<Integer> gears = new ArrayList<>();
+        for (int gear = maxGear; gear >= minGear; --gear) {
+            gears.add(gear);
+        }
+        if (decision.deadline != Long.MAX_VALUE) {
+            // The current gear and its neighbours go first, lower before higher, so that the gears
+            // evaluated by the deadline are the safe alternatives around the current one
+            final int currentGear = Math.max(minGear, Math.min(maxGear, player.getGear()));
+            gears.sort(Comparator.<Integer>comparingInt(g -> Math.abs(g - currentGear)).thenComparingInt(g -> g));
+        }
+        // Otherwise all gears are evaluated and the largest go first, so that their searches cover the
+        // smaller gears through the move cache when there are fewer threads than gears.
+        // Workers take the next gear until all gears are evaluated or the deadline passes, the calling
+        // thread is one of them. The first gear is always evaluated so that there is a scored gear to
+        // select, other gears not evaluated by the deadline are left out.
+        final Map<Integer, List<Integer>> gearToScore = new ConcurrentHashMap<>();
+        final AtomicInteger nextGear = new AtomicInteger();
+        final Runnable worker = () -> {
+            for (int i = nextGear.getAndIncrement(); i < gears.size() && (i == 0 || !decision.isExpired()); i = nextGear.getAndIncrement()) {
+                final List<Integer> scores = getRollScores(i == 0 ? decision.withoutDeadline() : decision, gears.get(i), blockedNodes, weather, overshootMultiplier, start, softTires, slide);
+                if (scores != null) {
+                    gearToScore.put(gears.get(i), scores);
                 }
-                int maxScore = res.entrySet().stream()
-                        .filter(e -> e.getValue().getDamage() * overshootMultiplier < player.getHitpoints())
-                        .map(e -> evaluate(e.getKey(), e.getValue().getDamage() * overshootMultiplier, finalGear))
-                        .mapToInt(Integer::intValue).max().orElse(Scores.MIN);
-                if (tires != null && tires.canUse(weather)) {
-                    final Map<Node, DamageAndPath> resOpt = NodeUtil.findTargetNodes(location, gear, roll + 1, player.getHitpoints(), player.getStops(), player.getLapsToGo(), blockedNodes, player.getLapsToGo() == totalLaps);
-                    final int optMaxScore = resOpt.entrySet().stream()
-                            .filter(e -> e.getValue().getDamage() * overshootMultiplier < player.getHitpoints())
-                            .map(e -> evaluate(e.getKey(), e.getValue().getDamage() * overshootMultiplier, finalGear))
-                            .mapToInt(Integer::intValue).max().orElse(Scores.MIN);
-                    if (optMaxScore > maxScore) {
-                        maxScore = optMaxScore;
-                    }
-                }
-                if (!slideNodes.isEmpty()) {
-                    final int slide = tires != null && tires.getType() == Tires.Type.WET ? 1 : 3;
-                    final Map<Node, DamageAndPath> targets = NodeUtil.findTargetNodes(location, gear, roll + slide, player.getHitpoints(), player.getStops(), player.getLapsToGo(), blockedNodes, player.getLapsToGo() == totalLaps);
-                    final int slideScore = targets.entrySet().stream()
-                            .filter(e -> e.getValue().getPath().stream().anyMatch(slideNodes::contains))
-                            .filter(e -> e.getValue().getDamage() * overshootMultiplier < player.getHitpoints())
-                            .map(e -> evaluate(e.getKey(), e.getValue().getDamage() * overshootMultiplier, finalGear))
-                            .mapToInt(Integer::intValue).max().orElse(Scores.MIN);
-                    if (slideScore > maxScore) {
-                        maxScore = slideScore;
-                    }
-                }
-                gearToScore.computeIfAbsent(gear, g -> new ArrayList<>()).add(maxScore);
             }
-        }
+        };
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int i = 1; i < Math.min(gears.size(), budget.getThreads()); i++) {
+            tasks.add(SearchBudget.POOL.submit(worker));
+        }
+        worker.run();
+        // Workers stop by themselves at the deadline, so none of them is left running into the next decision
+        tasks.forEach(ForkJoinTask::join);
         // Safe option: Pick gear with largest worst score.
         // Normal option: Pick gear with largest median scoree.
         // Risky option: Pick gear with largest best score.
@@ -395,17 +489,106 @@ public class ProAI extends BaseAI {
             results.add(new Scores(e.getKey(), minScore, medianScore, maxScore));
         }
         results.sort(Scores::compareTo);
-        gear = results.get(0).gear;
+        gear = results.isEmpty() ? player.getGear() : results.get(0).gear;
         debug("Chose gear " + gear);
+        debug("Transposition table hits " + transpositions.getHits() + " of " + transpositions.getProbes());
         return new gp.model.Gear().gear(gear).tires(tires);
     }
 
+    @Override
+    NodeSet getPonderWindow(PlayerState player) {
+        if (player.getGear() == 0 || player.getHitpoints() <= 0 || player.getLapsToGo() < 0) {
+            return null;
+        }
+        final Node node = nodes.get(player.getNodeId());
+        return node.getGraph().getSearchArea(node.getIndex());
+    }
+
+    // Searches the targets of each gear the player can select next, so that selectGear finds them in the move cache
+    @Override
+    void ponder(PlayerState player, NodeSet occupiedNodes) {
+        final Node node = nodes.get(player.getNodeId());
+        final int minGear = Math.max(1, player.getGear() - Math.min(4, player.getHitpoints()));
+        final int maxGear = Math.min(node.isPit() ? 4 : 6, player.getGear() + 1);
+        final boolean start = player.getLapsToGo() == totalLaps;
+        final NodeUtil.SearchContext context = new NodeUtil.SearchContext(occupiedNodes, player.getLapsToGo());
+        for (int gear = maxGear; gear >= minGear && !Thread.currentThread().isInterrupted(); --gear) {
+            // Longest roll and the extra distance from soft tires or sliding
+            NodeUtil.findTargetNodes(context, node, gear, 0, Gear.getMax(gear) + 3, player.getHitpoints(), player.getStops(), start);
+        }
+    }
+
+    // Returns the best score of each roll of the gear, in the order of the gear distribution, or null if
+    // the deadline of the decision passes first
+    private List<Integer> getRollScores(Decision decision, int gear, NodeSet blockedNodes, Weather weather, int overshootMultiplier, boolean start, boolean softTires, int slide) {
+        // Each gear has its own context as the context is not thread-safe, searches of different
+        // gears are still shared through the move cache.
+        final NodeUtil.SearchContext context = new NodeUtil.SearchContext(blockedNodes, decision.lapsToGo);
+        final int hitpoints = decision.hitpoints;
+        final List<Integer> scores = new ArrayList<>();
+        final int[] distribution = Gear.getDistribution(gear);
+        // Targets of all rolls of the gear, including the extra distance from soft tires or sliding
+        final int maxDistance = distribution[distribution.length - 1] + Math.max(softTires ? 1 : 0, weather == Weather.RAIN ? slide : 0);
+        final List<Map<Node, DamageAndPath>> allTargets = NodeUtil.findTargetNodes(context, decision.location, gear, 0, maxDistance, hitpoints, decision.stops, start);
+        // Distributions may contain the same roll more than once
+        final Map<Integer, Integer> rollToScore = new HashMap<>();
+        for (int roll : distribution) {
+            if (decision.isExpired()) {
+                return null;
+            }
+            final int maxScore = rollToScore.computeIfAbsent(roll, r -> {
+                final Map<Node, DamageAndPath> res = new HashMap<>(allTargets.get(r));
+                final NodeSet slideNodes = new NodeSet();
+                if (weather == Weather.RAIN) {
+                    final Iterator<Map.Entry<Node, DamageAndPath>> it = res.entrySet().iterator();
+                    while (it.hasNext()) {
+                        final Map.Entry<Node, DamageAndPath> e = it.next();
+                        if (e.getKey().isCurve() || e.getValue().getDamage() > 0) {
+                            slideNodes.add(e.getKey());
+                            it.remove();
+                        }
+                    }
+                }
+                int score = res.entrySet().stream()
+                        .filter(e -> e.getValue().getDamage() * overshootMultiplier < hitpoints)
+                        .map(e -> evaluate(decision, e.getKey(), e.getValue().getDamage() * overshootMultiplier, gear))
+                        .mapToInt(Integer::intValue).max().orElse(Scores.MIN);
+                if (softTires) {
+                    final int optMaxScore = allTargets.get(r + 1).entrySet().stream()
+                            .filter(e -> e.getValue().getDamage() * overshootMultiplier < hitpoints)
+                            .map(e -> evaluate(decision, e.getKey(), e.getValue().getDamage() * overshootMultiplier, gear))
+                            .mapToInt(Integer::intValue).max().orElse(Scores.MIN);
+                    if (optMaxScore > score) {
+                        score = optMaxScore;
+                    }
+                }
+                if (!slideNodes.isEmpty()) {
+                    final int slideScore = allTargets.get(r + slide).entrySet().stream()
+                            .filter(e -> e.getValue().passesThrough(slideNodes))
+                            .filter(e -> e.getValue().getDamage() * overshootMultiplier < hitpoints)
+                            .map(e -> evaluate(decision, e.getKey(), e.getValue().getDamage() * overshootMultiplier, gear))
+                            .mapToInt(Integer::intValue).max().orElse(Scores.MIN);
+                    if (slideScore > score) {
+                        score = slideScore;
+                    }
+                }
+                return score;
+            });
+            scores.add(maxScore);
+        }
+        return scores;
+    }
+
     @Override
     public SelectedIndex selectMove(Moves allMoves) {
         if (allMoves.getMoves().isEmpty()) {
             throw new RuntimeException("No valid targets provided by server!");
         }
         final List<ValidMove> moves = allMoves.getMoves();
+        final int endgameMove = getEndgameMove(player, gear, moves);
+        if (endgameMove >= 0) {
+            return new SelectedIndex().index(endgameMove);
+        }
         final List<Integer> bestIndices = new ArrayList<>();
         int maxScore = Integer.MIN_VALUE;
         for (int i = 0; i < moves.size(); ++i) {
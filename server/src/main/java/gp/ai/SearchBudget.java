@@ -0,0 +1,71 @@
+package gp.ai;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Effort of a built-in AI: simulated gear sequences and time limit in milliseconds per decision
+ * (zero for no limit), the most threads to use and whether to ponder while other players move.
+ * Threads are capped by the load of the machine when each decision starts, so that AIs on a busy
+ * host leave cores to each other and AIs on an idle host use all of them. Each AI uses the parts
+ * that apply to it, e.g. iterations only limit the sampling search of AmateurAI. The hitpoint
+ * multiplier of a profile is a handicap of the car and not part of the budget. Immutable.
+ */
+public final class SearchBudget {
+    private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+    // Searches of all AIs run in one pool, a decision uses at most getThreads() threads including the
+    // calling thread
+    static final ForkJoinPool POOL = new ForkJoinPool(PROCESSORS);
+
+    // Presets keep the effort of each AI type as it was before budgets, pondering stays opt-in
+    public static final SearchBudget BEGINNER = new SearchBudget(0, 0, 1, false);
+    public static final SearchBudget AMATEUR = new SearchBudget(1000, 0, PROCESSORS, false);
+    // ProAI evaluates every gear to completion, only its threads are limited
+    public static final SearchBudget PRO = new SearchBudget(0, 0, PROCESSORS, false);
+
+    private final int iterations;
+    private final long timeLimitMillis;
+    private final int maxThreads;
+    private final boolean pondering;
+
+    public SearchBudget(int iterations, long timeLimitMillis, int maxThreads, boolean pondering) {
+        this.iterations = iterations;
+        this.timeLimitMillis = timeLimitMillis;
+        this.maxThreads = Math.max(1, maxThreads);
+        this.pondering = pondering;
+    }
+
+    public static SearchBudget of(AI.Type type) {
+        switch (type) {
+            case BEGINNER: return BEGINNER;
+            case PRO: return PRO;
+            default: return AMATEUR;
+        }
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public long getTimeLimitMillis() {
+        return timeLimitMillis;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public boolean isPondering() {
+        return pondering;
+    }
+
+    /**
+     * Returns the number of threads to use now, at least one. The system load average is not
+     * available on all platforms, in which case all processors are considered idle.
+     */
+    public int getThreads() {
+        final double load = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+        final int idle = load < 0 ? PROCESSORS : PROCESSORS - (int) Math.round(load);
+        return Math.max(1, Math.min(maxThreads, idle));
+    }
+}
@@ -0,0 +1,140 @@
+package gp.ai;
+
+/**
+ * Static evaluation values of each node of a track, computed once per track and shared by all AI
+ * instances. The values are computed with the pit lane blocked unless the node itself is in the pits,
+ * which is how the AIs evaluate target nodes. Each value also has the set of nodes its search checked,
+ * so other blocked nodes only require a new search when they belong to that set. The values without
+ * blocked nodes are kept as well, for the AIUtil queries without opponents. All values are computed
+ * bottom-up over the areas of the track, see AIUtil.AreaDistances. Thread-safe.
+ */
+public final class TrackAnalysis {
+    // Curves have at most 3 stops, so larger stop counts behave the same
+    private static final int STOP_COUNTS = 4;
+
+    private final TrackGraph graph;
+    private final int[] minDistanceToNextCurve;
+    private final int[] maxDistanceWithoutDamage;
+    private final int[] stopsRequiredInNextCurve;
+    private final int[] freeMinDistanceToNextCurve;
+    private final int[] freeMaxDistanceWithoutDamage;
+    private final int[] minDistanceToTakeDamage;
+    private final int[] maxDistanceToStraightAfterNextCurve;
+    // Nodes checked by the search of each value, and which of them were blocked
+    private final NodeSet[] distanceFootprints;
+    private final NodeSet[] distanceBlocked;
+    private final NodeSet[] permitFootprints;
+    private final NodeSet[] permitBlocked;
+
+    TrackAnalysis(TrackGraph graph) {
+        this.graph = graph;
+        final int size = graph.size();
+        final NodeSet pitLane = new NodeSet();
+        for (int i = 0; i < size; i++) {
+            if (graph.isPit(i)) {
+                pitLane.add(i);
+            }
+        }
+        minDistanceToNextCurve = new int[size];
+        maxDistanceWithoutDamage = new int[size * STOP_COUNTS];
+        stopsRequiredInNextCurve = new int[size];
+        freeMinDistanceToNextCurve = new int[size];
+        freeMaxDistanceWithoutDamage = new int[size * STOP_COUNTS];
+        minDistanceToTakeDamage = new int[size * STOP_COUNTS];
+        maxDistanceToStraightAfterNextCurve = new int[size];
+        distanceFootprints = new NodeSet[size];
+        distanceBlocked = new NodeSet[size];
+        permitFootprints = new NodeSet[size * STOP_COUNTS];
+        permitBlocked = new NodeSet[size * STOP_COUNTS];
+        final AIUtil.AreaDistances free = new AIUtil.AreaDistances(graph, BaseAI.NO_NODES, true);
+        final AIUtil.AreaDistances outsidePits = new AIUtil.AreaDistances(graph, pitLane, true);
+        for (int i = 0; i < size; i++) {
+            final AIUtil.AreaDistances distances = graph.isPit(i) ? free : outsidePits;
+            distanceFootprints[i] = new NodeSet();
+            minDistanceToNextCurve[i] = distances.getMinDistanceToNextCurve(i, distanceFootprints[i]);
+            distanceBlocked[i] = intersection(distances.blocked, distanceFootprints[i]);
+            freeMinDistanceToNextCurve[i] = free.getMinDistanceToNextCurve(i, null);
+            for (int stops = 0; stops < STOP_COUNTS; stops++) {
+                final int entry = i * STOP_COUNTS + stops;
+                permitFootprints[entry] = new NodeSet();
+                maxDistanceWithoutDamage[entry] = distances.getMaxDistanceWithoutDamage(i, stops, permitFootprints[entry]);
+                permitBlocked[entry] = intersection(distances.blocked, permitFootprints[entry]);
+                freeMaxDistanceWithoutDamage[entry] = free.getMaxDistanceWithoutDamage(i, stops, null);
+                minDistanceToTakeDamage[entry] = free.getMinDistanceToTakeDamage(i, stops);
+            }
+            stopsRequiredInNextCurve[i] = AIUtil.getStopsRequiredInNextCurve(graph.getNode(i));
+            maxDistanceToStraightAfterNextCurve[i] = free.getMaxDistanceToStraightAfterNextCurve(i);
+        }
+    }
+
+    private static NodeSet intersection(NodeSet a, NodeSet b) {
+        final NodeSet result = new NodeSet(a);
+        result.retainAll(b);
+        return result;
+    }
+
+    // True if the given blocked nodes give the same search results as the ones used for the table
+    private static boolean matches(NodeSet blockedNodes, NodeSet footprint, NodeSet blocked) {
+        return intersection(blockedNodes, footprint).equals(blocked);
+    }
+
+    /**
+     * Same as AIUtil.getMinDistanceToNextCurve with the pit lane blocked for nodes outside the pits.
+     */
+    public int getMinDistanceToNextCurve(Node node) {
+        return minDistanceToNextCurve[graph.indexOf(node)];
+    }
+
+    /**
+     * Same as AIUtil.getMinDistanceToNextCurve, searches again only if the blocked nodes affect the result.
+     */
+    public int getMinDistanceToNextCurve(Node node, NodeSet blockedNodes) {
+        final int index = graph.indexOf(node);
+        if (blockedNodes.isEmpty()) {
+            return freeMinDistanceToNextCurve[index];
+        }
+        if (matches(blockedNodes, distanceFootprints[index], distanceBlocked[index])) {
+            return minDistanceToNextCurve[index];
+        }
+        return AIUtil.getMinDistanceToNextCurve(node, blockedNodes);
+    }
+
+    /**
+     * Same as AIUtil.getMaxDistanceWithoutDamage with the pit lane blocked for nodes outside the pits.
+     */
+    public int getMaxDistanceWithoutDamage(Node node, int stopCount) {
+        return maxDistanceWithoutDamage[graph.indexOf(node) * STOP_COUNTS + Math.min(stopCount, STOP_COUNTS - 1)];
+    }
+
+    /**
+     * Same as AIUtil.getMaxDistanceWithoutDamage, searches again only if the blocked nodes affect the result.
+     */
+    public int getMaxDistanceWithoutDamage(Node node, int stopCount, NodeSet blockedNodes) {
+        final int entry = graph.indexOf(node) * STOP_COUNTS + Math.min(stopCount, STOP_COUNTS - 1);
+        if (blockedNodes.isEmpty()) {
+            return freeMaxDistanceWithoutDamage[entry];
+        }
+        if (matches(blockedNodes, permitFootprints[entry], permitBlocked[entry])) {
+            return maxDistanceWithoutDamage[entry];
+        }
+        return AIUtil.getMaxDistanceWithoutDamage(node, stopCount, blockedNodes);
+    }
+
+    public int getStopsRequiredInNextCurve(Node node) {
+        return stopsRequiredInNextCurve[graph.indexOf(node)];
+    }
+
+    /**
+     * Same as AIUtil.getMinDistanceToTakeDamage.
+     */
+    public int getMinDistanceToTakeDamage(Node node, int stopCount) {
+        return minDistanceToTakeDamage[graph.indexOf(node) * STOP_COUNTS + Math.min(stopCount, STOP_COUNTS - 1)];
+    }
+
+    /**
+     * Same as AIUtil.getMaxDistanceToStraightAfterNextCurve.
+     */
+    public int getMaxDistanceToStraightAfterNextCurve(Node node) {
+        return maxDistanceToStraightAfterNextCurve[graph.indexOf(node)];
+    }
+}
@@ -0,0 +1,71 @@
+package gp.ai;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Files and threads for the tables precomputed per track. Tables of external tracks are stored next
+ * to the track data file and tables of the built-in tracks in a cache directory of the user.
+ */
+public final class TrackCache {
+    private static final File CACHE_DIRECTORY = new File(System.getProperty("user.home"), ".gp-online" + File.separator + "cache");
+
+    /**
+     * Computes the tables at low priority so that they do not delay the game or the AI players. The
+     * parallel streams of the computations run in this pool as well.
+     */
+    public static final ExecutorService EXECUTOR = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+        final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("Track tables " + thread.getPoolIndex());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    }, null, false);
+
+    @FunctionalInterface
+    public interface Writer {
+        void write(OutputStream os) throws IOException;
+    }
+
+    private TrackCache() {
+    }
+
+    /**
+     * Returns the file of the table with the given extension for the track.
+     */
+    public static File getFile(TrackData data, String extension) {
+        final String trackId = data.getTrackId();
+        final String name = trackId.substring(0, trackId.length() - 4) + "." + extension;
+        if (data.isExternal()) {
+            return new File(name);
+        }
+        return new File(CACHE_DIRECTORY, new File(name).getName());
+    }
+
+    /**
+     * Writes a temporary file that is then moved in place, so that no other game or process reads a
+     * partially written table.
+     */
+    public static void write(File file, Writer writer) throws IOException {
+        final Path target = file.getAbsoluteFile().toPath();
+        Files.createDirectories(target.getParent());
+        final Path temp = target.resolveSibling(file.getName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            try (OutputStream os = Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                writer.write(os);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
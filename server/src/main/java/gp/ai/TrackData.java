@@ -26,6 +26,7 @@ public class TrackData implements Serializable {
     public transient final Weather.Params weatherParams;
     private transient List<Node> startingGrid; // client does not need this
     private transient Map<Node, Set<Node>> collisionMap; // client does not need this
+    private transient TrackGraph graph;
 
     private TrackData(String trackId, boolean external, List<Node> nodes, List<Node> startingGrid, Map<Node, Set<Node>> collisionMap, String imageFile, MapEditor.Corner infoBoxCorner, Weather.Params params) {
         this.trackId = trackId;
@@ -46,6 +47,7 @@ public class TrackData implements Serializable {
         imageData = imageFile == null ? null : new ImageData(imageFile, external);
         this.infoBoxCorner = infoBoxCorner;
         this.weatherParams = params;
+        graph = new TrackGraph(this.nodes);
     }
 
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
@@ -55,6 +57,9 @@ public class TrackData implements Serializable {
             int dst = targets.get(i);
             nodes.get(src).addChild(nodes.get(dst));
         }
+        // Adding an edge only updates its own nodes, so curves are updated again with all edges in place
+        nodes.forEach(Node::updateCurve);
+        graph = new TrackGraph(nodes);
     }
 
     public static TrackData createTrackData(String trackId, boolean external) {
@@ -377,6 +382,7 @@ public class TrackData implements Serializable {
     }
 
     public static int build(List<Node> nodes, Map<Node, Double> attributes, List<Node> grid) {
+        nodes.forEach(Node::updateCurve);
         final int laneCount = updateDistances(nodes, attributes);
         nodes.stream().filter(n -> n.getDistance() < 0.0).findAny().ifPresent(n -> {
             throw new RuntimeException("Track contains unreachable node: " + n.getId() + " (" + n.getLocation().x + "," + n.getLocation().y + ")");
@@ -422,6 +428,10 @@ public class TrackData implements Serializable {
         return nodes;
     }
 
+    public TrackGraph getGraph() {
+        return graph;
+    }
+
     public int getGridMaxSize() {
         return startingGrid.size();
     }
@@ -0,0 +1,344 @@
+package gp.ai;
+
+import gp.ReachabilityTable;
+import org.apache.commons.lang3.mutable.MutableInt;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Immutable compiled form of a track used by the searches. Nodes are addressed by their index in
+ * the node list of the track and children are stored in compressed sparse row format, in the same
+ * order as they are iterated in Node.
+ */
+public final class TrackGraph {
+    private static final NodeType[] TYPES = NodeType.values();
+    private static final byte CURVE = 1;
+    private static final byte FINISH = 2;
+
+    private final Node[] nodes;
+    private final int[] offsets;
+    private final int[] children;
+    private final byte[] types;
+    private final byte[] flags;
+    private final double[] distances;
+    private final int[] areaIndices;
+    private final int[] stepsToFinishLine;
+    // Bitsets over node indices for searches operating on whole frontiers, see getWordCount. Children
+    // are close to their parent, so only the words from the first to the last child are stored.
+    private final int[] childMaskOffsets;
+    private final int[] childMaskFirstWords;
+    private final long[] childMasks;
+    private final long[] curveMask;
+    private final long[] pitMask;
+    private final long[] finishMask;
+    // Not part of the checksum, as garages do not affect movement
+    private final long[] garageMask;
+    // Nodes within ReachabilityTable.MAX_DISTANCE steps of each node
+    private final NodeSet[] searchAreas;
+    // Set once the table has been loaded or computed
+    private volatile ReachabilityTable reachabilityTable;
+    private volatile TrackAnalysis analysis;
+    private volatile GearPolicy gearPolicy;
+    private volatile EndgameTable endgameTable;
+
+    TrackGraph(List<Node> nodeList) {
+        final int size = nodeList.size();
+        nodes = nodeList.toArray(new Node[size]);
+        offsets = new int[size + 1];
+        types = new byte[size];
+        flags = new byte[size];
+        distances = new double[size];
+        areaIndices = new int[size];
+        stepsToFinishLine = new int[size];
+        for (int i = 0; i < size; i++) {
+            final Node node = nodes[i];
+            node.attach(this, i);
+            offsets[i + 1] = offsets[i] + (int) node.childCount(null);
+            types[i] = (byte) node.getType().ordinal();
+            flags[i] = (byte) ((node.isCurve() ? CURVE : 0) | (node.hasFinish() ? FINISH : 0));
+            distances[i] = node.getDistance();
+            areaIndices[i] = node.getAreaIndex();
+            stepsToFinishLine[i] = node.getStepsToFinishLine();
+        }
+        children = new int[offsets[size]];
+        for (int i = 0; i < size; i++) {
+            final MutableInt position = new MutableInt(offsets[i]);
+            nodes[i].forEachChild(child -> {
+                if (child.getGraph() != this) {
+                    throw new RuntimeException("Child node " + child.getId() + " is not part of the track");
+                }
+                children[position.getAndIncrement()] = child.getIndex();
+            });
+        }
+        final int words = getWordCount();
+        childMaskOffsets = new int[size + 1];
+        childMaskFirstWords = new int[size];
+        for (int i = 0; i < size; i++) {
+            int first = Integer.MAX_VALUE;
+            int last = -1;
+            for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                first = Math.min(first, children[j] >>> 6);
+                last = Math.max(last, children[j] >>> 6);
+            }
+            childMaskFirstWords[i] = last < 0 ? 0 : first;
+            childMaskOffsets[i + 1] = childMaskOffsets[i] + (last < 0 ? 0 : last - first + 1);
+        }
+        childMasks = new long[childMaskOffsets[size]];
+        curveMask = new long[words];
+        pitMask = new long[words];
+        finishMask = new long[words];
+        garageMask = new long[words];
+        for (int i = 0; i < size; i++) {
+            for (int j = offsets[i]; j < offsets[i + 1]; j++) {
+                childMasks[childMaskOffsets[i] + (children[j] >>> 6) - childMaskFirstWords[i]] |= 1L << children[j];
+            }
+            if (isCurve(i)) curveMask[i >>> 6] |= 1L << i;
+            if (isPit(i)) pitMask[i >>> 6] |= 1L << i;
+            if (hasFinish(i)) finishMask[i >>> 6] |= 1L << i;
+            if (nodes[i].hasGarage()) garageMask[i >>> 6] |= 1L << i;
+        }
+        searchAreas = new NodeSet[size];
+        final int[] distances = new int[size];
+        final int[] work = new int[size];
+        for (int i = 0; i < size; i++) {
+            searchAreas[i] = findNodesWithinDistance(i, ReachabilityTable.MAX_DISTANCE, distances, work);
+            nodes[i].setMinDistanceToNextArea(findMinDistanceToNextArea(i, distances, work));
+        }
+    }
+
+    private NodeSet findNodesWithinDistance(int start, int maxDistance, int[] distances, int[] work) {
+        Arrays.fill(distances, -1);
+        final NodeSet result = new NodeSet();
+        int head = 0;
+        int tail = 0;
+        distances[start] = 0;
+        work[tail++] = start;
+        result.add(start);
+        while (head < tail) {
+            final int node = work[head++];
+            if (distances[node] == maxDistance) {
+                continue;
+            }
+            for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                final int child = children[i];
+                if (distances[child] < 0) {
+                    distances[child] = distances[node] + 1;
+                    work[tail++] = child;
+                    result.add(child);
+                }
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    public Node getNode(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * Returns the index of the given node, which has to belong to this graph.
+     */
+    public int indexOf(Node node) {
+        return node.getIndex();
+    }
+
+    /**
+     * Returns the position of the first child of the given node, use getChild to access children.
+     */
+    public int getChildStart(int index) {
+        return offsets[index];
+    }
+
+    public int getChildEnd(int index) {
+        return offsets[index + 1];
+    }
+
+    public int getChild(int position) {
+        return children[position];
+    }
+
+    public boolean hasChild(int index, int child) {
+        for (int i = offsets[index]; i < offsets[index + 1]; i++) {
+            if (children[i] == child) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public NodeType getType(int index) {
+        return TYPES[types[index]];
+    }
+
+    public boolean isCurve(int index) {
+        return (flags[index] & CURVE) != 0;
+    }
+
+    public boolean isPit(int index) {
+        return types[index] == NodeType.PIT.ordinal();
+    }
+
+    public boolean hasFinish(int index) {
+        return (flags[index] & FINISH) != 0;
+    }
+
+    public boolean hasGarage(int index) {
+        return (garageMask[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public int getStopCount(int index) {
+        switch (getType(index)) {
+            case CURVE_1: return 1;
+            case CURVE_2: return 2;
+            case CURVE_3: return 3;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of 64-bit words in a bitset covering all nodes.
+     */
+    public int getWordCount() {
+        return (nodes.length + 63) >>> 6;
+    }
+
+    /**
+     * Sets the children of the given node in the given bitset.
+     */
+    public void addChildren(int index, long[] mask) {
+        for (int i = childMaskOffsets[index], word = childMaskFirstWords[index]; i < childMaskOffsets[index + 1]; i++, word++) {
+            mask[word] |= childMasks[i];
+        }
+    }
+
+    public long getCurveMask(int word) {
+        return curveMask[word];
+    }
+
+    public long getPitMask(int word) {
+        return pitMask[word];
+    }
+
+    public long getFinishMask(int word) {
+        return finishMask[word];
+    }
+
+    public double getDistance(int index) {
+        return distances[index];
+    }
+
+    int getAreaIndex(int index) {
+        return areaIndices[index];
+    }
+
+    int getStepsToFinishLine(int index) {
+        return stepsToFinishLine[index];
+    }
+
+    /**
+     * Returns a checksum of everything that affects movement, for detecting stale precomputed data.
+     */
+    public long getChecksum() {
+        final ByteBuffer buffer = ByteBuffer.allocate(4 * (offsets.length + children.length) + types.length + flags.length);
+        for (int offset : offsets) {
+            buffer.putInt(offset);
+        }
+        for (int child : children) {
+            buffer.putInt(child);
+        }
+        buffer.put(types).put(flags);
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array());
+        return crc.getValue();
+    }
+
+    /**
+     * Returns the nodes within ReachabilityTable.MAX_DISTANCE steps of the given node. Movement searches
+     * from the node up to that distance only examine these nodes. The returned set must not be modified.
+     */
+    public NodeSet getSearchArea(int index) {
+        return searchAreas[index];
+    }
+
+    public ReachabilityTable getReachabilityTable() {
+        return reachabilityTable;
+    }
+
+    public void setReachabilityTable(ReachabilityTable reachabilityTable) {
+        this.reachabilityTable = reachabilityTable;
+    }
+
+    /**
+     * Returns the solo gear policy of the track, or null if it has not been computed for the track.
+     */
+    public GearPolicy getGearPolicy() {
+        return gearPolicy;
+    }
+
+    public void setGearPolicy(GearPolicy gearPolicy) {
+        this.gearPolicy = gearPolicy;
+    }
+
+    /**
+     * Returns the final lap table of the track, or null if it is not ready yet.
+     */
+    public EndgameTable getEndgameTable() {
+        return endgameTable;
+    }
+
+    public void setEndgameTable(EndgameTable endgameTable) {
+        this.endgameTable = endgameTable;
+    }
+
+    /**
+     * Returns the evaluation tables of the track, computed on first use.
+     */
+    public TrackAnalysis getAnalysis() {
+        TrackAnalysis result = analysis;
+        if (result == null) {
+            synchronized (this) {
+                result = analysis;
+                if (result == null) {
+                    result = new TrackAnalysis(this);
+                    analysis = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    // Same as Node.getMinDistanceToNextArea, returns -1 if there is no next area
+    private int findMinDistanceToNextArea(int start, int[] visited, int[] work) {
+        final boolean startNodeIsCurve = isCurve(start);
+        final boolean inPits = isPit(start);
+        Arrays.fill(visited, 0);
+        int head = 0;
+        int tail = 0;
+        work[tail++] = start;
+        visited[start] = 1;
+        while (head < tail) {
+            final int node = work[head++];
+            for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+                final int next = children[i];
+                if (isPit(next) && !inPits) {
+                    continue;
+                }
+                if (isCurve(next) == !startNodeIsCurve) {
+                    return visited[node];
+                }
+                if (visited[next] == 0) {
+                    work[tail++] = next;
+                    visited[next] = visited[node] + 1;
+                }
+            }
+        }
+        return -1;
+    }
+}
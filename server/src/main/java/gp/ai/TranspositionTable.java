@@ -0,0 +1,123 @@
+package gp.ai;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size table of position scores for reusing evaluations within a decision. Positions are
+ * identified by packed long keys, see key. Each key maps to a bucket of two slots in an open
+ * addressed array. A new entry replaces an entry of an earlier decision first, then the entry with
+ * less remaining search depth. Entries are stored without locking: the key is stored XORed with the
+ * data, so a slot written by two threads at once does not match either key. Thread-safe.
+ */
+final class TranspositionTable {
+    private static final int BUCKET_SIZE = 2;
+    private static final long SCORE_MASK = 0xFFFFFFFFL;
+
+    private final long[] keys;
+    // Score in the lowest 32 bits, then 16 bits of generation and 8 bits of depth
+    private final long[] data;
+    private final int bucketMask;
+    private volatile int generation = 1;
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Capacity is rounded up to a power of two.
+     */
+    TranspositionTable(int capacity) {
+        final int buckets = Integer.highestOneBit(Math.max(1, capacity / BUCKET_SIZE - 1)) << 1;
+        keys = new long[buckets * BUCKET_SIZE];
+        data = new long[buckets * BUCKET_SIZE];
+        bucketMask = buckets - 1;
+    }
+
+    /**
+     * Packs a position into a key. Hitpoints and laps to go may be negative.
+     */
+    static long key(Node node, int gear, int hitpoints, int stops, int lapsToGo, int extra) {
+        return ((long) node.getIndex() << 40)
+                | ((long) (gear & 0x7) << 37)
+                | ((long) ((hitpoints + 128) & 0xFF) << 29)
+                | ((long) Math.min(stops, 15) << 25)
+                | ((long) ((lapsToGo + 128) & 0xFF) << 17)
+                | (extra & 0x1FFFF);
+    }
+
+    /**
+     * Starts a new decision, entries stored before are no longer returned.
+     */
+    void newGeneration() {
+        // Zero marks empty slots, so generations go from 1 to 0xFFFF
+        generation = generation % 0xFFFF + 1;
+    }
+
+    /**
+     * Returns the stored score of the key, or the given default value if the key has no score.
+     */
+    int getScore(long key, int defaultValue) {
+        probes.increment();
+        final int slot = find(key);
+        if (slot < 0) {
+            return defaultValue;
+        }
+        hits.increment();
+        return (int) data[slot];
+    }
+
+    private int find(long key) {
+        final int bucket = getBucket(key);
+        final int generation = this.generation;
+        for (int slot = bucket; slot < bucket + BUCKET_SIZE; slot++) {
+            final long entry = data[slot];
+            if ((keys[slot] ^ entry) == key && getGeneration(entry) == generation) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Stores the score of the key. Depth is the remaining search depth of the score, entries with more
+     * depth are kept over entries with less when the bucket is full.
+     */
+    void put(long key, int score, int depth) {
+        final int bucket = getBucket(key);
+        final int generation = this.generation;
+        int target = -1;
+        for (int slot = bucket; slot < bucket + BUCKET_SIZE; slot++) {
+            final long entry = data[slot];
+            if ((keys[slot] ^ entry) == key || getGeneration(entry) != generation) {
+                target = slot;
+                break;
+            }
+            if (target < 0 || getDepth(entry) < getDepth(data[target])) {
+                target = slot;
+            }
+        }
+        final long entry = (score & SCORE_MASK) | ((long) generation << 32) | ((long) Math.min(depth, 0xFF) << 48);
+        data[target] = entry;
+        keys[target] = key ^ entry;
+    }
+
+    private int getBucket(long key) {
+        // Mix the bits so that nearby nodes do not map to nearby buckets
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        return ((int) (hash >>> 32) & bucketMask) * BUCKET_SIZE;
+    }
+
+    private static int getGeneration(long entry) {
+        return (int) (entry >>> 32) & 0xFFFF;
+    }
+
+    private static int getDepth(long entry) {
+        return (int) (entry >>> 48) & 0xFF;
+    }
+
+    long getProbes() {
+        return probes.sum();
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+}
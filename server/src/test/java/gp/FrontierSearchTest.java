@@ -0,0 +1,95 @@
+package gp;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import gp.ai.Node;
+import gp.ai.NodeSet;
+import gp.ai.TrackData;
+import gp.ai.TrackGraph;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrontierSearchTest {
+    private static final String[] TRACKS = { "curitiba.dat", "denver.dat", "fuji.dat", "hockenheim.dat", "jacarepagua.dat", "singapore.dat", "taruma.dat", "valencia.dat" };
+
+    @Test
+    public void targetDamagesMatchReferenceOnBuiltInTracks() {
+        final Random random = new Random(10);
+        for (String track : TRACKS) {
+            final TrackGraph graph = TrackData.createTrackData(track, false).getGraph();
+            for (int i = 0; i < 100; i++) {
+                final Node node = graph.getNode(random.nextInt(graph.size()));
+                final NodeSet blocked = new NodeSet();
+                final int blockCount = random.nextInt(10);
+                for (int j = 0; j < blockCount; j++) {
+                    blocked.add(random.nextInt(graph.size()));
+                }
+                blocked.remove(node);
+                final int gear = 1 + random.nextInt(6);
+                final int stops = random.nextInt(4);
+                final int lapsToGo = random.nextInt(2);
+                final int hitpoints = 1 + random.nextInt(18);
+                final int minRoll = random.nextInt(10);
+                final int maxRoll = minRoll + random.nextInt(21);
+                final NodeUtil.SearchContext context = new NodeUtil.SearchContext(blocked, lapsToGo);
+                final List<Map<Node, Integer>> targets = NodeUtil.findTargetDamages(context, node, gear, minRoll, maxRoll, hitpoints, stops, false);
+                assertEquals(maxRoll + 1, targets.size());
+                for (int roll = 0; roll <= maxRoll; roll++) {
+                    final Map<Node, Integer> expected = ReferenceSearch.findDamages(node, roll, blocked, true, stops, lapsToGo == 0, lapsToGo > 0 && gear < 5);
+                    expected.values().removeIf(damage -> damage >= hitpoints);
+                    if (roll < minRoll) {
+                        expected.clear();
+                    }
+                    assertEquals(track + " node " + node.getId() + " roll " + roll + " blocked " + blocked, expected, targets.get(roll));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void targetPathsAreValidOnBuiltInTracks() {
+        final Random random = new Random(11);
+        for (String track : TRACKS) {
+            final TrackGraph graph = TrackData.createTrackData(track, false).getGraph();
+            for (int i = 0; i < 100; i++) {
+                final Node node = graph.getNode(random.nextInt(graph.size()));
+                final NodeSet blocked = new NodeSet();
+                final int blockCount = random.nextInt(10);
+                for (int j = 0; j < blockCount; j++) {
+                    blocked.add(random.nextInt(graph.size()));
+                }
+                blocked.remove(node);
+                final int gear = 1 + random.nextInt(6);
+                final int stops = random.nextInt(4);
+                final int lapsToGo = random.nextInt(2);
+                final int hitpoints = 1 + random.nextInt(18);
+                final int minRoll = random.nextInt(10);
+                final int maxRoll = minRoll + random.nextInt(21);
+                final NodeUtil.SearchContext context = new NodeUtil.SearchContext(blocked, lapsToGo);
+                final List<Map<Node, DamageAndPath>> targets = NodeUtil.findTargetNodes(context, node, gear, minRoll, maxRoll, hitpoints, stops, false);
+                for (int roll = minRoll; roll <= maxRoll; roll++) {
+                    final String message = track + " node " + node.getId() + " roll " + roll + " blocked " + blocked;
+                    ReachabilityTableTest.assertValidPaths(message, node, targets.get(roll), roll, blocked, stops, lapsToGo == 0, lapsToGo > 0 && gear < 5);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void startAndPitEntryRulesMatchReference() {
+        final TrackGraph graph = TrackData.createTrackData("hockenheim.dat", false).getGraph();
+        final NodeSet noBlocks = new NodeSet();
+        for (int node = 0; node < graph.size(); node++) {
+            final NodeUtil.SearchContext context = new NodeUtil.SearchContext(noBlocks, 1);
+            final List<Map<Node, Integer>> fromGrid = NodeUtil.findTargetDamages(context, graph.getNode(node), 1, 0, 12, Integer.MAX_VALUE, 0, true);
+            final List<Map<Node, Integer>> withPitEntry = NodeUtil.findTargetDamages(context, graph.getNode(node), 1, 0, 12, Integer.MAX_VALUE, 0, false);
+            for (int roll = 0; roll <= 12; roll++) {
+                assertEquals(ReferenceSearch.findDamages(graph.getNode(node), roll, noBlocks, true, 0, false, false), fromGrid.get(roll));
+                assertEquals(ReferenceSearch.findDamages(graph.getNode(node), roll, noBlocks, true, 0, false, true), withPitEntry.get(roll));
+            }
+        }
+    }
+}
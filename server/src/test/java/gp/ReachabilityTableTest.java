@@ -0,0 +1,134 @@
+package gp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import gp.ai.Node;
+import gp.ai.NodeSet;
+import gp.ai.TrackData;
+import gp.ai.TrackGraph;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReachabilityTableTest {
+    private static final String[] TRACKS = { "curitiba.dat", "denver.dat", "fuji.dat", "hockenheim.dat", "jacarepagua.dat", "singapore.dat", "taruma.dat", "valencia.dat" };
+    private static final int[] DISTANCES = { 0, 1, 4, 7, 12, 18, 24, 30, ReachabilityTable.MAX_DISTANCE };
+
+    static Map<Node, Integer> getDamages(Map<Node, DamageAndPath> targets) {
+        final Map<Node, Integer> damages = new HashMap<>();
+        targets.forEach((node, damageAndPath) -> damages.put(node, damageAndPath.getDamage()));
+        return damages;
+    }
+
+    /**
+     * Checks that the path of each target follows the movement rules of ReferenceSearch from the start
+     * node, and that replaying it gives the length and damage reported with it.
+     */
+    static void assertValidPaths(String message, Node start, Map<Node, DamageAndPath> targets, int distance, NodeSet blocked, int stopsDone, boolean finalLap, boolean allowPitEntry) {
+        targets.forEach((target, damageAndPath) -> {
+            final List<Node> path = damageAndPath.getPath();
+            final String prefix = message + " target " + target.getId() + " path " + path;
+            assertSame(prefix, start, path.get(0));
+            assertSame(prefix, target, path.get(path.size() - 1));
+            if (finalLap && !start.hasFinish() && target.hasFinish()) {
+                // Movement ends at the finish line on the final lap
+                assertTrue(prefix, path.size() <= distance + 1);
+            } else {
+                assertEquals(prefix, distance + 1, path.size());
+            }
+            int stops = stopsDone;
+            boolean allowCurveEntry = true;
+            int damage = 0;
+            for (int i = 0; i + 1 < path.size(); i++) {
+                final Node node = path.get(i);
+                final Node next = path.get(i + 1);
+                assertTrue(prefix, node.hasChild(next));
+                assertFalse(prefix, blocked.contains(next));
+                assertTrue(prefix, allowPitEntry || !next.isPit());
+                if (!node.isCurve() && next.isCurve()) {
+                    assertTrue(prefix, allowCurveEntry);
+                } else if (node.isCurve() && !next.isCurve()) {
+                    final int stopsToDo = node.getStopCount() - stops;
+                    assertTrue(prefix, stopsToDo <= 1);
+                    if (stopsToDo == 1) {
+                        damage += distance - i;
+                    }
+                    allowCurveEntry = stopsToDo <= 0;
+                    stops = 0;
+                }
+            }
+            assertEquals(prefix, damage, damageAndPath.getDamage());
+        });
+    }
+
+    @Test
+    public void tableMatchesSearchOnBuiltInTracks() {
+        for (String track : TRACKS) {
+            final TrackGraph graph = TrackData.createTrackData(track, false).getGraph();
+            final ReachabilityTable table = ReachabilityTable.compute(graph);
+            final NodeSet noBlocks = new NodeSet();
+            for (int node = 0; node < graph.size(); node++) {
+                for (int stops = 0; stops < 4; stops++) {
+                    for (int mode = 0; mode < 3; mode++) {
+                        final boolean finalLap = mode == 2;
+                        final boolean allowPitEntry = mode == 0;
+                        final List<Map<Node, DamageAndPath>> targets = table.findTargets(graph, node, 0, ReachabilityTable.MAX_DISTANCE, Integer.MAX_VALUE, stops, finalLap, allowPitEntry, noBlocks);
+                        for (int distance : DISTANCES) {
+                            final Map<Node, Integer> expected = ReferenceSearch.findDamages(graph.getNode(node), distance, noBlocks, true, stops, finalLap, allowPitEntry);
+                            final String message = track + " node " + node + " stops " + stops + " mode " + mode + " distance " + distance;
+                            assertEquals(message, expected, getDamages(targets.get(distance)));
+                            assertValidPaths(message, graph.getNode(node), targets.get(distance), distance, noBlocks, stops, finalLap, allowPitEntry);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void searchWithTableMatchesReferenceWhenBlocked() {
+        final Random random = new Random(8);
+        for (String track : TRACKS) {
+            final TrackGraph graph = TrackData.createTrackData(track, false).getGraph();
+            graph.setReachabilityTable(ReachabilityTable.compute(graph));
+            for (int i = 0; i < 200; i++) {
+                final Node node = graph.getNode(random.nextInt(graph.size()));
+                final NodeSet blocked = new NodeSet();
+                for (int j = 0; j < 9; j++) {
+                    blocked.add(random.nextInt(graph.size()));
+                }
+                blocked.remove(node);
+                final int gear = 1 + random.nextInt(6);
+                final int stops = random.nextInt(4);
+                final int lapsToGo = random.nextInt(2);
+                final int roll = random.nextInt(31);
+                final Map<Node, DamageAndPath> targets = NodeUtil.findTargetNodes(node, gear, roll, Integer.MAX_VALUE, stops, lapsToGo, blocked, false);
+                final Map<Node, Integer> expected = ReferenceSearch.findDamages(node, roll, blocked, true, stops, lapsToGo == 0, lapsToGo > 0 && gear < 5);
+                final String message = track + " node " + node.getId() + " roll " + roll + " blocked " + blocked;
+                assertEquals(message, expected, getDamages(targets));
+                assertValidPaths(message, node, targets, roll, blocked, stops, lapsToGo == 0, lapsToGo > 0 && gear < 5);
+            }
+        }
+    }
+
+    @Test
+    public void writeAndReadRoundTrip() throws IOException {
+        final TrackGraph graph = TrackData.createTrackData("valencia.dat", false).getGraph();
+        final ReachabilityTable table = ReachabilityTable.compute(graph);
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        table.write(os);
+        final ReachabilityTable read = ReachabilityTable.read(new ByteArrayInputStream(os.toByteArray()), graph);
+        assertNotNull(read);
+        final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        read.write(copy);
+        assertArrayEquals(os.toByteArray(), copy.toByteArray());
+        final TrackGraph other = TrackData.createTrackData("fuji.dat", false).getGraph();
+        assertNull(ReachabilityTable.read(new ByteArrayInputStream(os.toByteArray()), other));
+    }
+}
@@ -0,0 +1,63 @@
+package gp;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import gp.ai.Node;
+import gp.ai.NodeSet;
+import gp.ai.NodeType;
+
+/**
+ * The original recursive movement search that the table and frontier searches replace, kept as the
+ * reference for their results. Finds the minimum damage of the targets at exactly the given distance.
+ */
+final class ReferenceSearch {
+    private ReferenceSearch() {
+    }
+
+    static Map<Node, Integer> findDamages(Node startNode, int targetDistance, NodeSet forbiddenNodes, boolean allowCurveEntry, int stopsDone, boolean finalLap, boolean allowPitEntry) {
+        final Set<Node> visited = new HashSet<>();
+        final Map<Node, Integer> result = new HashMap<>();
+        final Map<Integer, Set<Node>> distanceMap = new HashMap<>();
+        distanceMap.computeIfAbsent(0, d -> new HashSet<>()).add(startNode);
+        if (!startNode.isCurve()) {
+            visited.add(startNode);
+        }
+        for (int distance = 0; distance <= targetDistance && distanceMap.containsKey(distance); distance++) {
+            for (Node node : distanceMap.get(distance)) {
+                if (distance == targetDistance || finalLap && !startNode.hasFinish() && node.hasFinish()) {
+                    result.put(node, 0);
+                    continue;
+                }
+                final int finalDistance = distance;
+                final Set<Node> nextNodes = distanceMap.computeIfAbsent(distance + 1, d -> new HashSet<>());
+                node.forEachChild(next -> {
+                    if (forbiddenNodes.contains(next) || !allowPitEntry && next.getType() == NodeType.PIT) {
+                        return;
+                    }
+                    if (node.isCurve() || next.isCurve()) {
+                        if (!node.isCurve()) {
+                            if (allowCurveEntry) {
+                                nextNodes.add(next);
+                            }
+                        } else if (!next.isCurve()) {
+                            final int stopsToDo = node.getStopCount() - stopsDone;
+                            if (stopsToDo <= 1) {
+                                final int damage = stopsToDo <= 0 ? 0 : targetDistance - finalDistance;
+                                findDamages(next, targetDistance - finalDistance - 1, forbiddenNodes, stopsToDo <= 0, 0, finalLap, allowPitEntry)
+                                        .forEach((n, d) -> result.merge(n, d + damage, Math::min));
+                            }
+                        } else {
+                            nextNodes.add(next);
+                        }
+                    } else if (visited.add(next)) {
+                        nextNodes.add(next);
+                    }
+                });
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,193 @@
+package gp.ai;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The original recursive area searches of AIUtil that AreaDistances and TrackAnalysis replace, kept as
+ * the reference for their results.
+ */
+final class AreaReference {
+    private AreaReference() {
+    }
+
+    static int getMinDistanceToNextCurve(Node node, NodeSet blockedNodes) {
+        if (node.isCurve()) {
+            final Map<Node, Integer> nextStraight = findMinDistancesToNextAreaStart(node, false, blockedNodes);
+            if (nextStraight.isEmpty()) {
+                return -1;
+            }
+            return nextStraight
+                    .entrySet()
+                    .stream()
+                    .map(e -> {
+                        final int extraDistance = findMinDistancesToNextAreaStart(e.getKey(), false, blockedNodes).values().stream().mapToInt(Integer::intValue).min().orElse(-1);
+                        return extraDistance == -1 ? -1 : extraDistance + e.getValue();
+                    })
+                    .mapToInt(Integer::intValue)
+                    .filter(i -> i != -1)
+                    .min()
+                    .orElse(-1);
+        } else {
+            return findMinDistancesToNextAreaStart(node, false, blockedNodes).values().stream().mapToInt(Integer::intValue).min().orElse(-1);
+        }
+    }
+
+    static int getMaxDistanceWithoutDamage(Node startNode, int stopCount, NodeSet blockedNodes) {
+        if (startNode.getStopCount() > stopCount) {
+            return findMaxDistanceInThisArea(startNode, blockedNodes);
+        }
+        final Map<Node, Integer> nextAreaStart = findMaxDistancesToNextAreaStart(startNode, blockedNodes);
+        if (nextAreaStart.isEmpty()) {
+            return findMaxDistanceInThisArea(startNode, blockedNodes);
+        }
+        return nextAreaStart
+                .entrySet()
+                .stream()
+                .map(e -> getMaxDistanceWithoutDamage(e.getKey(), 0, blockedNodes) + e.getValue())
+                .mapToInt(Integer::intValue)
+                .max()
+                .orElse(0);
+    }
+
+    static int getMinDistanceToTakeDamage(Node startNode, int stopCount) {
+        final Map<Node, Integer> nextAreaStart = findMinDistancesToNextAreaStart(startNode, false, new NodeSet());
+        if (nextAreaStart.isEmpty()) {
+            return 1;
+        }
+        if (startNode.getStopCount() > stopCount) {
+            return nextAreaStart.values().stream().mapToInt(Integer::intValue).min().orElse(1);
+        }
+        return nextAreaStart
+                .entrySet()
+                .stream()
+                .map(e -> getMinDistanceToTakeDamage(e.getKey(), 0) + e.getValue())
+                .mapToInt(Integer::intValue)
+                .min()
+                .orElse(1);
+    }
+
+    private static int findMaxDistanceInThisArea(Node startNode, NodeSet blockedNodes) {
+        final boolean startNodeIsCurve = startNode.isCurve();
+        final Deque<Node> work = new ArrayDeque<>();
+        final Map<Node, Integer> matchingTypeDistances = new HashMap<>();
+        matchingTypeDistances.put(startNode, 0);
+        work.addLast(startNode);
+        while (!work.isEmpty()) {
+            final Node node = work.removeFirst();
+            final int newDistance = matchingTypeDistances.get(node) + 1;
+            node.childStream().filter(child -> !blockedNodes.contains(child)).forEach(child -> {
+                if (child.isCurve() == startNodeIsCurve) {
+                    final Integer distance = matchingTypeDistances.get(child);
+                    if (distance == null || (startNodeIsCurve && newDistance > distance)) {
+                        matchingTypeDistances.put(child, newDistance);
+                        work.addLast(child);
+                    }
+                }
+            });
+        }
+        return matchingTypeDistances.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+    }
+
+    private static int findMaxDistanceToStraight(Node startNode) {
+        if (!startNode.isCurve()) {
+            return 0;
+        }
+        return startNode
+                .childStream()
+                .map(AreaReference::findMaxDistanceToStraight)
+                .mapToInt(Integer::intValue)
+                .max()
+                .orElse(0) + 1;
+    }
+
+    private static int getMaxDistanceToNextStraight(Node startNode) {
+        if (startNode.isCurve()) {
+            return findMaxDistanceToStraight(startNode);
+        } else {
+            return findMaxDistancesToNextAreaStart(startNode, new NodeSet())
+                    .entrySet()
+                    .stream()
+                    .map(e -> findMaxDistanceToStraight(e.getKey()) + e.getValue())
+                    .mapToInt(Integer::intValue)
+                    .max()
+                    .orElse(0);
+        }
+    }
+
+    static int getMaxDistanceToStraightAfterNextCurve(Node startNode) {
+        if (startNode.isCurve()) {
+            return findMaxDistancesToNextAreaStart(startNode, new NodeSet())
+                    .entrySet()
+                    .stream()
+                    .map(e -> getMaxDistanceToNextStraight(e.getKey()) + e.getValue())
+                    .mapToInt(Integer::intValue)
+                    .max()
+                    .orElse(0);
+        } else {
+            return getMaxDistanceToNextStraight(startNode);
+        }
+    }
+
+    private static Map<Node, Integer> findMaxDistancesToNextAreaStart(Node startNode, NodeSet blockedNodes) {
+        final NodeType type = startNode.getType();
+        if (startNode.isCurve() || startNode.isPit()) {
+            final Deque<Node> work = new ArrayDeque<>();
+            final Map<Node, Integer> matchingTypeDistances = new HashMap<>();
+            final Map<Node, Integer> nonMatchingTypeDistances = new HashMap<>();
+            matchingTypeDistances.put(startNode, 0);
+            work.addLast(startNode);
+            while (!work.isEmpty()) {
+                final Node node = work.removeLast();
+                final int newDistance = matchingTypeDistances.get(node) + 1;
+                node.childStream().filter(child -> !blockedNodes.contains(child)).forEach(child -> {
+                    if (child.getType() == type) {
+                        final Integer distance = matchingTypeDistances.get(child);
+                        if (distance == null || newDistance > distance) {
+                            matchingTypeDistances.put(child, newDistance);
+                            work.addLast(child);
+                        }
+                    } else {
+                        final Integer distance = nonMatchingTypeDistances.get(child);
+                        if (distance == null || newDistance > distance) {
+                            nonMatchingTypeDistances.put(child, newDistance);
+                        }
+                    }
+                });
+            }
+            return nonMatchingTypeDistances;
+        } else {
+            return findMinDistancesToNextAreaStart(startNode, true, blockedNodes);
+        }
+    }
+
+    private static Map<Node, Integer> findMinDistancesToNextAreaStart(Node startNode, boolean allowNonOptimalLastMove, NodeSet blockedNodes) {
+        final boolean startNodeIsCurve = startNode.isCurve();
+        final Deque<Node> work = new ArrayDeque<>();
+        final Map<Node, Integer> matchingTypeDistances = new HashMap<>();
+        final Map<Node, Integer> nonMatchingTypeDistances = new HashMap<>();
+        matchingTypeDistances.put(startNode, 0);
+        work.addLast(startNode);
+        while (!work.isEmpty()) {
+            final Node node = work.removeFirst();
+            final int newDistance = matchingTypeDistances.get(node) + 1;
+            node.childStream().filter(child -> !blockedNodes.contains(child)).forEach(child -> {
+                if (child.isCurve() == startNodeIsCurve) {
+                    final Integer distance = matchingTypeDistances.get(child);
+                    if (distance == null) {
+                        matchingTypeDistances.put(child, newDistance);
+                        work.addLast(child);
+                    }
+                } else {
+                    final Integer distance = nonMatchingTypeDistances.get(child);
+                    if (distance == null || (allowNonOptimalLastMove && newDistance > distance)) {
+                        nonMatchingTypeDistances.put(child, newDistance);
+                    }
+                }
+            });
+        }
+        return nonMatchingTypeDistances;
+    }
+}
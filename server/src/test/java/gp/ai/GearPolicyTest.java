@@ -0,0 +1,106 @@
+package gp.ai;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import gp.model.CreatedPlayerNotification;
+import gp.model.GameState;
+import gp.model.PlayerState;
+
+import static org.junit.Assert.*;
+
+public class GearPolicyTest {
+    // Few hitpoints keep the solve short, two laps are needed for extrapolating longer races
+    private static final int MAX_HITPOINTS = 3;
+    private static final int LAPS = 2;
+    private static TrackGraph graph;
+    private static GearPolicy policy;
+
+    @BeforeClass
+    public static void computePolicy() {
+        graph = TrackData.createTrackData("valencia.dat", false).getGraph();
+        policy = GearPolicy.compute(graph, MAX_HITPOINTS, LAPS);
+    }
+
+    private static byte[] toBytes(GearPolicy policy) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        policy.write(os);
+        return os.toByteArray();
+    }
+
+    @Test
+    public void writeAndReadRoundTrip() throws IOException {
+        final byte[] bytes = toBytes(policy);
+        final GearPolicy read = GearPolicy.read(new ByteArrayInputStream(bytes), graph);
+        assertNotNull(read);
+        assertArrayEquals(bytes, toBytes(read));
+        assertEquals(MAX_HITPOINTS, read.getMaxHitpoints());
+        for (int index = 0; index < graph.size(); index++) {
+            final Node node = graph.getNode(index);
+            for (int lapsToGo = 0; lapsToGo <= LAPS; lapsToGo++) {
+                for (int gear = 1; gear <= GearPolicy.GEARS; gear++) {
+                    for (int hitpoints = 1; hitpoints <= MAX_HITPOINTS; hitpoints++) {
+                        for (int stops = 0; stops < GearPolicy.STOP_COUNTS; stops++) {
+                            assertEquals(policy.getExpectedTurns(node, gear, hitpoints, stops, lapsToGo), read.getExpectedTurns(node, gear, hitpoints, stops, lapsToGo), 0);
+                            assertEquals(policy.getGear(node, gear, hitpoints, stops, lapsToGo), read.getGear(node, gear, hitpoints, stops, lapsToGo));
+                        }
+                    }
+                }
+            }
+        }
+        final TrackGraph other = TrackData.createTrackData("fuji.dat", false).getGraph();
+        assertNull(GearPolicy.read(new ByteArrayInputStream(bytes), other));
+    }
+
+    @Test
+    public void solveIsDeterministic() throws IOException {
+        assertArrayEquals(toBytes(policy), toBytes(GearPolicy.compute(graph, MAX_HITPOINTS, LAPS)));
+    }
+
+    @Test
+    public void selectedGearsAreValid() {
+        for (int index = 0; index < graph.size(); index++) {
+            final Node node = graph.getNode(index);
+            for (int lapsToGo = 0; lapsToGo < LAPS; lapsToGo++) {
+                for (int gear = 1; gear <= GearPolicy.GEARS; gear++) {
+                    for (int hitpoints = 1; hitpoints <= MAX_HITPOINTS; hitpoints++) {
+                        for (int stops = 0; stops < GearPolicy.STOP_COUNTS; stops++) {
+                            final int newGear = policy.getGear(node, gear, hitpoints, stops, lapsToGo);
+                            assertTrue(node + " gear " + gear + " hitpoints " + hitpoints + " selected " + newGear,
+                                    newGear == 0 || AIUtil.validateGear(hitpoints, gear, newGear, node.isPit()));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void proAIScoresWithLoadedPolicy() throws IOException {
+        final TrackData data = TrackData.createTrackData("valencia.dat", false);
+        final TrackGraph graph = data.getGraph();
+        final Node location = graph.getNode(0);
+        final Node target = location.childStream().filter(node -> !node.isPit() && node.getAreaIndex() == location.getAreaIndex()).findFirst().orElse(null);
+        assertNotNull(target);
+        graph.setGearPolicy(GearPolicy.read(new ByteArrayInputStream(toBytes(policy)), graph));
+        try {
+            final ProAI ai = new ProAI(data);
+            ai.notify(new CreatedPlayerNotification("p0", "p0", location.getId(), MAX_HITPOINTS, LAPS - 1, new int[2], 0, null).controlled(true));
+            final GameState gameState = new GameState();
+            final PlayerState player = new PlayerState().playerId("p0").gear(2).hitpoints(MAX_HITPOINTS).stops(0);
+            player.setNodeId(location.getId());
+            player.setLapsToGo(LAPS - 1);
+            gameState.addPlayersItem(player);
+            ai.selectGear(gameState);
+            final int stops = target.isCurve() ? 1 : 0;
+            final int expected = -(int) Math.round(100 * policy.getExpectedTurns(target, 2, MAX_HITPOINTS, stops, LAPS - 1));
+            assertEquals(expected, ai.evaluate(target, 0, 2));
+        } finally {
+            graph.setGearPolicy(null);
+        }
+    }
+}
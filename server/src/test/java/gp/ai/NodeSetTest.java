@@ -0,0 +1,77 @@
+package gp.ai;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NodeSetTest {
+    private static NodeSet toNodeSet(BitSet bits) {
+        final NodeSet set = new NodeSet();
+        bits.stream().forEach(set::add);
+        return set;
+    }
+
+    private static BitSet randomBits(Random random) {
+        final BitSet bits = new BitSet();
+        final int size = random.nextInt(300);
+        final int count = random.nextInt(20);
+        for (int i = 0; i < count && size > 0; i++) {
+            bits.set(random.nextInt(size));
+        }
+        return bits;
+    }
+
+    @Test
+    public void operationsMatchBitSet() {
+        final Random random = new Random(3);
+        for (int i = 0; i < 2000; i++) {
+            final BitSet a = randomBits(random);
+            final BitSet b = randomBits(random);
+            final NodeSet setA = toNodeSet(a);
+            final NodeSet setB = toNodeSet(b);
+            for (int index = 0; index < 320; index++) {
+                assertEquals(a.get(index), setA.contains(index));
+            }
+            assertEquals(a.intersects(b), setA.intersects(setB));
+            assertEquals(a.isEmpty(), setA.isEmpty());
+            assertEquals(a.equals(b), setA.equals(setB));
+
+            final NodeSet union = new NodeSet(setA);
+            union.addAll(setB);
+            final BitSet expectedUnion = (BitSet) a.clone();
+            expectedUnion.or(b);
+            assertEquals(toNodeSet(expectedUnion), union);
+
+            final NodeSet intersection = new NodeSet(setA);
+            intersection.retainAll(setB);
+            final BitSet expectedIntersection = (BitSet) a.clone();
+            expectedIntersection.and(b);
+            assertEquals(toNodeSet(expectedIntersection), intersection);
+
+            final int removed = random.nextInt(320);
+            final NodeSet difference = new NodeSet(setA);
+            difference.remove(removed);
+            a.clear(removed);
+            assertEquals(toNodeSet(a), difference);
+            assertEquals(toNodeSet(a), NodeSet.valueOf(difference.toLongArray()));
+        }
+    }
+
+    @Test
+    public void equalSetsOfDifferentLengthHaveEqualHashes() {
+        final NodeSet small = new NodeSet();
+        small.add(5);
+        final NodeSet large = new NodeSet();
+        large.add(5);
+        large.add(200);
+        large.remove(200);
+        assertEquals(small, large);
+        assertEquals(small.hashCode(), large.hashCode());
+        large.clear();
+        assertTrue(large.isEmpty());
+        assertEquals(new NodeSet(), large);
+    }
+}
@@ -0,0 +1,75 @@
+package gp.ai;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TrackAnalysisTest {
+    private static final String[] TRACKS = { "curitiba.dat", "denver.dat", "fuji.dat", "hockenheim.dat", "jacarepagua.dat", "singapore.dat", "taruma.dat", "valencia.dat" };
+
+    private static NodeSet getPitLane(TrackGraph graph) {
+        final NodeSet pitLane = new NodeSet();
+        for (int index = 0; index < graph.size(); index++) {
+            if (graph.isPit(index)) {
+                pitLane.add(index);
+            }
+        }
+        return pitLane;
+    }
+
+    @Test
+    public void valuesWithoutBlockedNodesMatchReference() {
+        final NodeSet noBlocks = new NodeSet();
+        for (String track : TRACKS) {
+            final TrackGraph graph = TrackData.createTrackData(track, false).getGraph();
+            final TrackAnalysis analysis = graph.getAnalysis();
+            final NodeSet pitLane = getPitLane(graph);
+            for (int index = 0; index < graph.size(); index++) {
+                final Node node = graph.getNode(index);
+                final NodeSet outsidePits = node.isPit() ? noBlocks : pitLane;
+                final String message = track + " node " + node.getId();
+                assertEquals(message, AreaReference.getMinDistanceToNextCurve(node, noBlocks), AIUtil.getMinDistanceToNextCurve(node, noBlocks));
+                assertEquals(message, AreaReference.getMinDistanceToNextCurve(node, outsidePits), analysis.getMinDistanceToNextCurve(node));
+                assertEquals(message, AreaReference.getMaxDistanceToStraightAfterNextCurve(node), AIUtil.getMaxDistanceToStraightAfterNextCurve(node));
+                for (int stops = 0; stops < 4; stops++) {
+                    assertEquals(message + " stops " + stops, AreaReference.getMaxDistanceWithoutDamage(node, stops, noBlocks), AIUtil.getMaxDistanceWithoutDamage(node, stops, noBlocks));
+                    assertEquals(message + " stops " + stops, AreaReference.getMaxDistanceWithoutDamage(node, stops, outsidePits), analysis.getMaxDistanceWithoutDamage(node, stops));
+                    assertEquals(message + " stops " + stops, AreaReference.getMinDistanceToTakeDamage(node, stops), AIUtil.getMinDistanceToTakeDamage(node, stops));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void valuesWithBlockedNodesMatchReference() {
+        final Random random = new Random(21);
+        for (String track : TRACKS) {
+            final TrackGraph graph = TrackData.createTrackData(track, false).getGraph();
+            final TrackAnalysis analysis = graph.getAnalysis();
+            final NodeSet pitLane = getPitLane(graph);
+            for (int i = 0; i < 300; i++) {
+                final Node node = graph.getNode(random.nextInt(graph.size()));
+                final NodeSet blocked = new NodeSet();
+                final int blockCount = 1 + random.nextInt(9);
+                for (int j = 0; j < blockCount; j++) {
+                    blocked.add(random.nextInt(graph.size()));
+                }
+                // Blocked pit lanes are what the analysis tables are computed with, so they are reused
+                if (random.nextBoolean()) {
+                    blocked.addAll(pitLane);
+                }
+                blocked.remove(node);
+                final int stops = random.nextInt(4);
+                final String message = track + " node " + node.getId() + " stops " + stops + " blocked " + blocked;
+                final int minDistance = AreaReference.getMinDistanceToNextCurve(node, blocked);
+                final int maxDistance = AreaReference.getMaxDistanceWithoutDamage(node, stops, blocked);
+                assertEquals(message, minDistance, AIUtil.getMinDistanceToNextCurve(node, blocked));
+                assertEquals(message, minDistance, analysis.getMinDistanceToNextCurve(node, blocked));
+                assertEquals(message, maxDistance, AIUtil.getMaxDistanceWithoutDamage(node, stops, blocked));
+                assertEquals(message, maxDistance, analysis.getMaxDistanceWithoutDamage(node, stops, blocked));
+            }
+        }
+    }
+}
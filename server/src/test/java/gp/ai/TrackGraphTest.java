@@ -0,0 +1,72 @@
+package gp.ai;
+
+import java.util.*;
+
+import gp.ReachabilityTable;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TrackGraphTest {
+    private static final String[] TRACKS = { "curitiba.dat", "denver.dat", "fuji.dat", "hockenheim.dat", "jacarepagua.dat", "singapore.dat", "taruma.dat", "valencia.dat" };
+
+    private static boolean isSet(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    @Test
+    public void masksMatchNodes() {
+        for (String track : TRACKS) {
+            final TrackGraph graph = TrackData.createTrackData(track, false).getGraph();
+            final int words = graph.getWordCount();
+            final long[] curves = new long[words];
+            final long[] pits = new long[words];
+            final long[] finish = new long[words];
+            for (int word = 0; word < words; word++) {
+                curves[word] = graph.getCurveMask(word);
+                pits[word] = graph.getPitMask(word);
+                finish[word] = graph.getFinishMask(word);
+            }
+            for (int index = 0; index < words * 64; index++) {
+                final Node node = index < graph.size() ? graph.getNode(index) : null;
+                assertEquals(track + " node " + index, node != null && node.isCurve(), isSet(curves, index));
+                assertEquals(track + " node " + index, node != null && node.getType() == NodeType.PIT, isSet(pits, index));
+                assertEquals(track + " node " + index, node != null && node.hasFinish(), isSet(finish, index));
+            }
+            for (int index = 0; index < graph.size(); index++) {
+                final long[] mask = new long[words];
+                graph.addChildren(index, mask);
+                final Set<Node> children = new HashSet<>();
+                graph.getNode(index).forEachChild(children::add);
+                for (int child = 0; child < graph.size(); child++) {
+                    assertEquals(track + " node " + index + " child " + child, children.contains(graph.getNode(child)), isSet(mask, child));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void searchAreasContainNodesWithinMaxDistance() {
+        for (String track : TRACKS) {
+            final TrackGraph graph = TrackData.createTrackData(track, false).getGraph();
+            for (int index = 0; index < graph.size(); index++) {
+                final Map<Node, Integer> distances = new HashMap<>();
+                final Deque<Node> work = new ArrayDeque<>();
+                distances.put(graph.getNode(index), 0);
+                work.add(graph.getNode(index));
+                while (!work.isEmpty()) {
+                    final Node node = work.removeFirst();
+                    final int distance = distances.get(node);
+                    if (distance < ReachabilityTable.MAX_DISTANCE) {
+                        node.forEachChild(child -> {
+                            if (distances.putIfAbsent(child, distance + 1) == null) {
+                                work.addLast(child);
+                            }
+                        });
+                    }
+                }
+                assertEquals(track + " node " + index, new NodeSet(distances.keySet()), graph.getSearchArea(index));
+            }
+        }
+    }
+}